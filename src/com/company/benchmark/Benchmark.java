@@ -0,0 +1,363 @@
+package com.company.benchmark;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 基准测试工具
+ * <p>
+ * 仓库本身没有构建文件，无法直接依赖 JMH，这里提供一个只依赖 JDK 的最小基准测试框架，
+ * 各个模式的 XxxBenchmark 都基于它来编写。
+ * <p>
+ * 支持两种测量方式：
+ * 1、吞吐量/延迟：多个线程在固定时长内反复调用同一个操作，按批次计时得到每秒操作数；
+ *    每个批次中的第一次操作单独计时作为延迟样本，得到单次操作延迟的分位数（与 JMH 的 SampleTime 模式相同，
+ *    样本中包含一次 System.nanoTime 调用的开销，通常为几十纳秒，比它更短的操作只能看吞吐量）。
+ * 2、单次耗时：重复执行若干次独立的一次性试验（例如冷启动、类初始化），得到耗时分位数。
+ * <p>
+ * 所有结果都可以输出为 JSON，便于在不同 JDK 之间对比回归。
+ * <p>
+ * 命令行参数（均可选）：
+ * --threads=1,2,4     线程数列表，默认 1 到 CPU 核数之间的 2 的幂
+ * --warmup=500        每组预热时长（毫秒）
+ * --duration=1000     每组测量时长（毫秒）
+ * --trials=50         单次耗时类测试的试验次数
+ * --out=result.json   JSON 输出文件，默认输出到标准输出
+ */
+public class Benchmark {
+    private static final int BATCH = 1024;
+    private static final int MAX_SAMPLES = 1 << 16;
+
+    // 基准测试代码中直接调用 consume 时使用的黑洞，每个线程一个
+    private static final ThreadLocal<Blackhole> BLACKHOLES = ThreadLocal.withInitial(Blackhole::new);
+
+    private final List<Result> results = new ArrayList<>();
+    private int[] threads;
+    private long warmupMillis = 500;
+    private long durationMillis = 1000;
+    private int trials = 50;
+    private String out;
+
+    public Benchmark(String[] args) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        List<Integer> defaults = new ArrayList<>();
+        for (int t = 1; t < cpus; t <<= 1) {
+            defaults.add(t);
+        }
+        defaults.add(cpus);
+        threads = defaults.stream().mapToInt(Integer::intValue).toArray();
+
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = Arrays.stream(value(arg).split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--warmup=")) {
+                warmupMillis = Long.parseLong(value(arg));
+            } else if (arg.startsWith("--duration=")) {
+                durationMillis = Long.parseLong(value(arg));
+            } else if (arg.startsWith("--trials=")) {
+                trials = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--out=")) {
+                out = value(arg);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    /**
+     * 防止 JIT 把 value 的计算当作死代码消除
+     */
+    public static void consume(Object value) {
+        BLACKHOLES.get().consume(value);
+    }
+
+    public int[] getThreads() {
+        return threads;
+    }
+
+    public int getTrials() {
+        return trials;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * 在配置的每个线程数下测量吞吐量和延迟
+     */
+    public void throughput(String name, Supplier<?> operation) {
+        for (int t : threads) {
+            throughput(name, t, operation);
+        }
+    }
+
+    public Result throughput(String name, int threadCount, Supplier<?> operation) {
+        return throughput(name, threadCount, BATCH, operation);
+    }
+
+    /**
+     * batch 为每个批次的操作次数，每个批次只抽取一次操作单独计时作为延迟样本；
+     * 单次操作本身很重（例如一次处理整批数据）时应该调小，batch 为 1 时每次操作都计时
+     */
+    public Result throughput(String name, int threadCount, int batch, Supplier<?> operation) {
+        run(threadCount, warmupMillis, batch, operation);
+        Measurement[] measurements = run(threadCount, durationMillis, batch, operation);
+
+        long ops = 0;
+        long nanos = 0;
+        long[] samples = new long[0];
+        for (Measurement m : measurements) {
+            ops += m.ops;
+            nanos = Math.max(nanos, m.nanos);
+            int offset = samples.length;
+            samples = Arrays.copyOf(samples, offset + m.count);
+            System.arraycopy(m.samples, 0, samples, offset, m.count);
+        }
+        Arrays.sort(samples);
+
+        Result result = new Result(name, "throughput", threadCount);
+        result.score = ops * 1e9 / nanos;
+        result.unit = "ops/s";
+        result.p50 = percentile(samples, 0.50);
+        result.p99 = percentile(samples, 0.99);
+        result.p999 = percentile(samples, 0.999);
+        results.add(result);
+        return result;
+    }
+
+    private Measurement[] run(int threadCount, long millis, int batch, Supplier<?> operation) {
+        Measurement[] measurements = new Measurement[threadCount];
+        Thread[] workers = new Thread[threadCount];
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = millis * 1_000_000L;
+        for (int i = 0; i < threadCount; i++) {
+            Measurement m = new Measurement(batch);
+            measurements[i] = m;
+            workers[i] = new Thread(() -> {
+                Blackhole blackhole = new Blackhole();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long begin = System.nanoTime();
+                long now = begin;
+                while (now - begin < deadline) {
+                    long sampleStart = System.nanoTime();
+                    blackhole.consume(operation.get());
+                    m.record(System.nanoTime() - sampleStart);
+                    for (int j = 1; j < batch; j++) {
+                        blackhole.consume(operation.get());
+                    }
+                    now = System.nanoTime();
+                }
+                m.nanos = now - begin;
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return measurements;
+    }
+
+    /**
+     * 测量一次性操作的耗时，trial 返回单次试验的纳秒数
+     */
+    public Result singleShot(String name, LongSupplier trial) {
+        return singleShot(name, trials, trial);
+    }
+
+    public Result singleShot(String name, int trialCount, LongSupplier trial) {
+        long[] samples = new long[trialCount];
+        for (int i = 0; i < trialCount; i++) {
+            samples[i] = trial.getAsLong();
+        }
+        Arrays.sort(samples);
+
+        Result result = new Result(name, "singleShot", 1);
+        result.score = Arrays.stream(samples).average().orElse(0);
+        result.unit = "ns/op";
+        result.p50 = percentile(samples, 0.50);
+        result.p99 = percentile(samples, 0.99);
+        result.p999 = percentile(samples, 0.999);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * 在当前线程上测量每次操作分配的字节数，相当于 JMH 的 -prof gc 中的 gc.alloc.rate.norm
+     */
+    public Result allocation(String name, Supplier<?> operation) {
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Blackhole blackhole = new Blackhole();
+        int ops = 100_000;
+        for (int i = 0; i < ops; i++) {
+            blackhole.consume(operation.get());
+        }
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ops; i++) {
+            blackhole.consume(operation.get());
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        return record(name, "allocation", allocated / (double) ops, "B/op");
+    }
+
+    /**
+     * 把一个额外计算出的指标（例如内存占用）作为结果记录下来
+     */
+    public Result record(String name, String mode, double score, String unit) {
+        Result result = new Result(name, mode, 1);
+        result.score = score;
+        result.unit = unit;
+        results.add(result);
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"jdk\": \"").append(System.getProperty("java.vm.name"))
+                .append(' ').append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            sb.append(i == 0 ? "\n    " : ",\n    ").append(results.get(i).toJson());
+        }
+        sb.append("\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * 打印可读的结果摘要，并按参数输出 JSON
+     */
+    public void report() throws IOException {
+        PrintStream console = out == null ? System.err : System.out;
+        for (Result result : results) {
+            console.println(result);
+        }
+        if (out == null) {
+            System.out.print(toJson());
+        } else {
+            Files.write(Paths.get(out), toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class Measurement {
+        private final long[] samples = new long[MAX_SAMPLES];
+        private final int batch;
+        private int count;
+        private long ops;
+        private long nanos;
+
+        Measurement(int batch) {
+            this.batch = batch;
+        }
+
+        // 记录一个批次：batch 次操作，其中一次单独计时的延迟样本
+        void record(long sampleNanos) {
+            ops += batch;
+            if (count < MAX_SAMPLES) {
+                samples[count++] = sampleNanos;
+            }
+        }
+    }
+
+    /**
+     * 黑洞，参照 JMH 的 Blackhole
+     * <p>
+     * 不能和常量比较（例如 value == Benchmark.class）：C2 能证明新分配的对象不可能等于任何已有的引用，
+     * 比较结果恒为 false，于是把整个分配消除。这里用线性同余随机数决定是否把对象写入 volatile 字段，
+     * 对象在这条路径上会逃逸，JIT 无法消除它的计算和分配；每写入一次掩码多一位，写入越来越稀少，
+     * 对被测代码几乎没有影响。写入的是 WeakReference，不会延长对象的生命周期。
+     * <p>
+     * 每个实例只能由一个线程使用，各个工作线程各自持有一个，避免共享字段的缓存行争用。
+     */
+    public static final class Blackhole {
+        private volatile Object sink;
+        private int tlr = (int) System.nanoTime();
+        private int tlrMask = 1;
+
+        public void consume(Object value) {
+            int mask = tlrMask;
+            int r = tlr * 1664525 + 1013904223;
+            tlr = r;
+            if ((r & mask) == 0) {
+                sink = new WeakReference<>(value);
+                tlrMask = (mask << 1) + 1;
+            }
+        }
+    }
+
+    public static class Result {
+        private final String name;
+        private final String mode;
+        private final int threads;
+        private double score;
+        private String unit;
+        private double p50;
+        private double p99;
+        private double p999;
+
+        Result(String name, String mode, int threads) {
+            this.name = name;
+            this.mode = mode;
+            this.threads = threads;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"name\": \"%s\", \"mode\": \"%s\", \"threads\": %d, \"score\": %.3f, "
+                            + "\"unit\": \"%s\", \"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f}",
+                    name, mode, threads, score, unit, p50, p99, p999);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-48s %-10s threads=%-3d %,18.1f %-6s p50=%.1f p99=%.1f p99.9=%.1f",
+                    name, mode, threads, score, unit, p50, p99, p999);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.company.benchmark;
+
+import com.company.creation_pattern.BuilderPattern;
+
+import java.util.function.Supplier;
+
+/**
+ * 建造者模式的基准测试
+ * <p>
+ * 1、比较每次新建套餐和 release 后复用套餐两种方式建造套餐的吞吐量，以及每次建造分配的字节数。
+ * 2、比较逐对象定价与 MealBatch 列式定价、按包装分组的吞吐量，每次操作处理整批条目，
+ *    每秒处理的条目数 = 吞吐量 × builder.priceBatch.itemsPerOp。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.BuilderBenchmark --threads=1 --out=builder.json
+ */
+public class BuilderBenchmark {
+    private static final int MEALS = 1 << 22;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int threads = benchmark.getThreads()[0];
+
+        // 每个线程一个建造者
+        ThreadLocal<BuilderPattern.MealBuilder> builders = ThreadLocal.withInitial(BuilderPattern.MealBuilder::new);
+        Supplier<?> fresh = () -> {
+            BuilderPattern.Meal meal = builders.get().prepareVegMeal();
+            Benchmark.consume(meal.getCostCents() == 0 ? null : meal);
+            return meal;
+        };
+        Supplier<?> recycled = () -> {
+            BuilderPattern.MealBuilder builder = builders.get();
+            BuilderPattern.Meal meal = builder.prepareVegMeal();
+            Benchmark.consume(meal.getCostCents() == 0 ? null : meal);
+            builder.release(meal);
+            return meal;
+        };
+
+        benchmark.throughput("builder.prepareMeal.fresh", threads, fresh);
+        benchmark.throughput("builder.prepareMeal.recycled", threads, recycled);
+        benchmark.allocation("builder.prepareMeal.fresh", fresh);
+        benchmark.allocation("builder.prepareMeal.recycled", recycled);
+
+        // 整批定价：逐对象调用 priceCents() 与列式批次对比，每次操作为整批定价一次
+        BuilderPattern.MealBuilder builder = new BuilderPattern.MealBuilder();
+        BuilderPattern.MealBatch batch = new BuilderPattern.MealBatch(MEALS, MEALS * 2);
+        builder.prepareVegMeals(batch, MEALS / 2);
+        builder.prepareNonVegMeals(batch, MEALS / 2);
+        BuilderPattern.Item[] items = new BuilderPattern.Item[batch.getItemCount()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = batch.getItem(i);
+        }
+        benchmark.throughput("builder.priceBatch.objects", threads, 1, () -> {
+            long total = 0;
+            for (BuilderPattern.Item item : items) {
+                total += item.priceCents();
+            }
+            return total;
+        });
+        benchmark.throughput("builder.priceBatch.columnar", threads, 1, batch::getTotalCents);
+        benchmark.throughput("builder.priceBatch.columnarParallel", threads, 1, batch::getTotalCentsParallel);
+        benchmark.throughput("builder.groupByPacking.columnar", threads, 1, batch::getSubtotalsByPacking);
+        benchmark.throughput("builder.groupByPacking.columnarParallel", threads, 1,
+                batch::getSubtotalsByPackingParallel);
+        benchmark.record("builder.priceBatch.itemsPerOp", "size", items.length, "items");
+
+        benchmark.report();
+    }
+}
@@ -0,0 +1,108 @@
+package com.company.benchmark;
+
+import com.company.creation_pattern.BuilderPattern;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 并发订单的压力测试和基准测试
+ * <p>
+ * 1、压力测试：至少 16 个线程同时向同一个 ConcurrentMealOrder 添加条目，build 后检查条目数和总价，
+ *    并检查 build 之后不能再添加条目。检查失败时直接抛出异常。
+ * 2、基准测试：多个线程同时向同一个订单添加条目，对比分段订单与用 synchronized 保护的 Meal。
+ *    订单每累计一定条目就换一个新的，避免内存无限增长。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.ConcurrentOrderBenchmark --threads=1,2,4,8,16 --out=order.json
+ */
+public class ConcurrentOrderBenchmark {
+    private static final int STRESS_ITEMS_PER_THREAD = 200_000;
+    private static final int ITEMS_PER_ORDER = 1 << 16;
+
+    private static final BuilderPattern.Item COKE = new BuilderPattern.Coke();
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        stress(Math.max(16, Arrays.stream(benchmark.getThreads()).max().orElse(1)));
+
+        for (int threads : benchmark.getThreads()) {
+            AtomicReference<BuilderPattern.ConcurrentMealOrder> order =
+                    new AtomicReference<>(new BuilderPattern.ConcurrentMealOrder());
+            benchmark.throughput("builder.concurrentOrder.striped", threads, replacing(order,
+                    BuilderPattern.ConcurrentMealOrder::new, o -> o.addItem(COKE)));
+
+            AtomicReference<BuilderPattern.Meal> meal = new AtomicReference<>(new BuilderPattern.Meal());
+            benchmark.throughput("builder.concurrentOrder.synchronizedMeal", threads, replacing(meal,
+                    BuilderPattern.Meal::new, m -> {
+                        synchronized (m) {
+                            m.addItem(COKE);
+                        }
+                    }));
+        }
+        benchmark.report();
+    }
+
+    // 每个线程添加 ITEMS_PER_ORDER 个条目后换一个新订单
+    private static <T> Supplier<?> replacing(AtomicReference<T> current, Supplier<T> factory,
+                                             Consumer<T> add) {
+        ThreadLocal<int[]> counters = ThreadLocal.withInitial(() -> new int[1]);
+        return () -> {
+            T target = current.get();
+            add.accept(target);
+            int[] counter = counters.get();
+            if (++counter[0] == ITEMS_PER_ORDER) {
+                counter[0] = 0;
+                current.compareAndSet(target, factory.get());
+            }
+            return target;
+        };
+    }
+
+    private static void stress(int threads) throws InterruptedException {
+        BuilderPattern.ConcurrentMealOrder order = new BuilderPattern.MealBuilder().newConcurrentOrder();
+        BuilderPattern.Item[] menu = {new BuilderPattern.VegBurger(), new BuilderPattern.ChickenBurger(),
+                COKE, new BuilderPattern.Pepsi()};
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long expectedCents = 0;
+        for (int t = 0; t < threads; t++) {
+            BuilderPattern.Item item = menu[t % menu.length];
+            expectedCents += item.priceCents() * STRESS_ITEMS_PER_THREAD;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < STRESS_ITEMS_PER_THREAD; i++) {
+                    order.addItem(item);
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        BuilderPattern.Meal meal = order.build();
+        if (meal.getItemCount() != threads * STRESS_ITEMS_PER_THREAD || meal.getCostCents() != expectedCents) {
+            throw new IllegalStateException("Stress test failed with " + threads + " threads: "
+                    + meal.getItemCount() + " items, " + meal.getCostCents() + " cents, expected "
+                    + threads * STRESS_ITEMS_PER_THREAD + " items, " + expectedCents + " cents");
+        }
+        try {
+            order.addItem(COKE);
+            throw new IllegalStateException("Order accepted an item after build()");
+        } catch (IllegalStateException expected) {
+            if (!"Order already built".equals(expected.getMessage())) {
+                throw expected;
+            }
+        }
+        System.err.println("Stress test passed with " + threads + " threads");
+    }
+}
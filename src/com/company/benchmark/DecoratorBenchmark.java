@@ -0,0 +1,119 @@
+package com.company.benchmark;
+
+import com.company.structured_pattern.DecoratorPattern;
+
+/**
+ * 装饰器展平的基准测试
+ * <p>
+ * 在深度 1、5、20、50 下，对比嵌套装饰链和 FusedShape 展平后 draw 的吞吐量。
+ * 装饰链由四种装饰类交替组成（只有 before、只有 after、两者都有），让嵌套调用处于多态（megamorphic）状态。
+ * 每个钩子都以不满足交换律的方式更新同一个状态值，测量前先校验两种方式得到的状态相同，即调用顺序一致。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.DecoratorBenchmark --threads=1 --out=decorator.json
+ */
+public class DecoratorBenchmark {
+    private static final int[] DEPTHS = {1, 5, 20, 50};
+
+    private static long state;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int threads = benchmark.getThreads()[0];
+
+        for (int depth : DEPTHS) {
+            DecoratorPattern.Shape nested = chain(depth);
+            DecoratorPattern.Shape fused = DecoratorPattern.FusedShape.of(nested);
+
+            state = 1;
+            nested.draw();
+            long expected = state;
+            state = 1;
+            fused.draw();
+            if (state != expected) {
+                throw new IllegalStateException("Fused chain of depth " + depth + " runs hooks in a different order");
+            }
+
+            // 钩子写入的静态字段本身就是副作用；返回形状而不是 state，避免每次操作装箱一个 Long
+            benchmark.throughput("decorator.nested.depth" + depth, threads, () -> {
+                nested.draw();
+                return nested;
+            });
+            benchmark.throughput("decorator.fused.depth" + depth, threads, () -> {
+                fused.draw();
+                return fused;
+            });
+        }
+
+        benchmark.report();
+    }
+
+    private static DecoratorPattern.Shape chain(int depth) {
+        DecoratorPattern.Shape shape = () -> state = state * 31 + 7;
+        for (int i = 0; i < depth; i++) {
+            switch (i % 4) {
+                case 0:
+                    shape = new Outline(shape);
+                    break;
+                case 1:
+                    shape = new Shadow(shape);
+                    break;
+                case 2:
+                    shape = new Fill(shape);
+                    break;
+                default:
+                    shape = new Label(shape);
+                    break;
+            }
+        }
+        return shape;
+    }
+
+    private static final class Outline extends DecoratorPattern.ShapeDecorator {
+        Outline(DecoratorPattern.Shape shape) {
+            super(shape);
+        }
+
+        @Override
+        protected void after() {
+            state = state * 31 + 1;
+        }
+    }
+
+    private static final class Shadow extends DecoratorPattern.ShapeDecorator {
+        Shadow(DecoratorPattern.Shape shape) {
+            super(shape);
+        }
+
+        @Override
+        protected void before() {
+            state = state * 31 + 2;
+        }
+    }
+
+    private static final class Fill extends DecoratorPattern.ShapeDecorator {
+        Fill(DecoratorPattern.Shape shape) {
+            super(shape);
+        }
+
+        @Override
+        protected void before() {
+            state = state * 31 + 3;
+        }
+
+        @Override
+        protected void after() {
+            state = state * 31 + 4;
+        }
+    }
+
+    private static final class Label extends DecoratorPattern.ShapeDecorator {
+        Label(DecoratorPattern.Shape shape) {
+            super(shape);
+        }
+
+        @Override
+        protected void after() {
+            state = state * 31 + 5;
+        }
+    }
+}
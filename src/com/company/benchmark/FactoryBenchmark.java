@@ -0,0 +1,128 @@
+package com.company.benchmark;
+
+import com.company.creation_pattern.AbstractFactoryPattern;
+import com.company.creation_pattern.FactoryPattern;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 工厂模式批量创建的基准测试
+ * <p>
+ * 对比逐个调用 getShape 和批量 getShapes（按类型名、按类型 id、并行）填充同一批形状的吞吐量，
+ * 每次操作处理 BATCH 个形状，结果单位为批次/秒。
+ * 另外注册 LARGE_REGISTRY 种类型，先确认每个类型名都能解析到自己的产品，再测分派表的构造耗时和按名称批量创建的吞吐量。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.FactoryBenchmark --threads=1 --out=factory.json
+ */
+public class FactoryBenchmark {
+    private static final int BATCH = 1 << 16;
+    private static final int LARGE_REGISTRY = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int threads = benchmark.getThreads()[0];
+
+        String[] names = {FactoryPattern.ShapeFactory.CIRCLE, "rectangle", "Square"};
+        Random random = new Random(42);
+        String[] types = new String[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            types[i] = names[random.nextInt(names.length)];
+        }
+
+        FactoryPattern.ShapeFactory factory = new FactoryPattern.ShapeFactory();
+        FactoryPattern.ShapeFactory allocating = FactoryPattern.ShapeFactory.builder()
+                .register(FactoryPattern.ShapeFactory.CIRCLE, FactoryPattern.Circle::new)
+                .register(FactoryPattern.ShapeFactory.RECTANGLE, FactoryPattern.Rectangle::new)
+                .register(FactoryPattern.ShapeFactory.SQUARE, FactoryPattern.Square::new)
+                .build();
+        for (FactoryPattern.ShapeFactory f : new FactoryPattern.ShapeFactory[]{factory, allocating}) {
+            String suffix = f == factory ? ".shared" : ".new";
+            int[] ids = new int[BATCH];
+            for (int i = 0; i < BATCH; i++) {
+                ids[i] = f.getTypeId(types[i]);
+            }
+            FactoryPattern.Shape[] out = new FactoryPattern.Shape[BATCH];
+            benchmark.throughput("factory.singleCall" + suffix, threads, 1, () -> {
+                for (int i = 0; i < BATCH; i++) {
+                    out[i] = f.getShape(types[i]);
+                }
+                return out;
+            });
+            benchmark.throughput("factory.batchByName" + suffix, threads, 1, () -> {
+                f.getShapes(types, out);
+                return out;
+            });
+            benchmark.throughput("factory.batchById" + suffix, threads, 1, () -> {
+                f.getShapes(ids, out);
+                return out;
+            });
+            benchmark.throughput("factory.batchByIdParallel" + suffix, threads, 1, () -> {
+                f.getShapes(ids, out, true);
+                return out;
+            });
+        }
+
+        AbstractFactoryPattern.ShapeFactory abstractFactory = new AbstractFactoryPattern.ShapeFactory();
+        AbstractFactoryPattern.Shape[] abstractOut = new AbstractFactoryPattern.Shape[BATCH];
+        benchmark.throughput("abstractFactory.singleCall", threads, 1, () -> {
+            for (int i = 0; i < BATCH; i++) {
+                abstractOut[i] = abstractFactory.getShape(types[i]);
+            }
+            return abstractOut;
+        });
+        benchmark.throughput("abstractFactory.batchByName", threads, 1, () -> {
+            abstractFactory.getShapes(types, abstractOut);
+            return abstractOut;
+        });
+        benchmark.throughput("abstractFactory.batchByNameParallel", threads, 1, () -> {
+            abstractFactory.getShapes(types, abstractOut, true);
+            return abstractOut;
+        });
+
+        largeRegistry(benchmark, threads);
+
+        benchmark.report();
+    }
+
+    // 注册几千种类型：确认分派表能构造、每个类型名都解析到自己的产品，再测构造耗时和查找吞吐量
+    private static void largeRegistry(Benchmark benchmark, int threads) {
+        String[] names = new String[LARGE_REGISTRY];
+        for (int i = 0; i < LARGE_REGISTRY; i++) {
+            names[i] = "shape-" + i;
+        }
+        FactoryPattern.ShapeFactory large = buildLarge(names);
+        for (String name : names) {
+            if (!large.resolve(name.toUpperCase(Locale.ROOT)).getName().equalsIgnoreCase(name)) {
+                throw new IllegalStateException("Dispatch table resolved " + name + " to the wrong product");
+            }
+        }
+        if (large.getTypeId("shape-" + LARGE_REGISTRY) != -1) {
+            throw new IllegalStateException("Dispatch table resolved an unregistered name");
+        }
+
+        benchmark.singleShot("factory.largeRegistry.build", () -> {
+            long start = System.nanoTime();
+            Benchmark.consume(buildLarge(names));
+            return System.nanoTime() - start;
+        });
+        String[] lookups = new String[BATCH];
+        Random random = new Random(42);
+        for (int i = 0; i < BATCH; i++) {
+            lookups[i] = names[random.nextInt(names.length)];
+        }
+        FactoryPattern.Shape[] out = new FactoryPattern.Shape[BATCH];
+        benchmark.throughput("factory.largeRegistry.batchByName", threads, 1, () -> {
+            large.getShapes(lookups, out);
+            return out;
+        });
+    }
+
+    private static FactoryPattern.ShapeFactory buildLarge(String[] names) {
+        FactoryPattern.ShapeFactory.Builder builder = FactoryPattern.ShapeFactory.builder();
+        for (String name : names) {
+            builder.register(name, FactoryPattern.Circle::new, FactoryPattern.ShapeFactory.CreationPolicy.SHARED);
+        }
+        return builder.build();
+    }
+}
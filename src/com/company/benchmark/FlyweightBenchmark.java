@@ -0,0 +1,196 @@
+package com.company.benchmark;
+
+import com.company.structured_pattern.FlyweightPattern;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * 享元工厂引用策略的基准测试
+ * <p>
+ * 1、浸泡测试：以无界的键空间（每次都是新的颜色）持续向工厂请求享元，调用方只持有最近的 WORKING_SET 个，
+ * 对比 STRONG、WEAK、SOFT 以及 WEAK + pinned 四种策略在 Full GC 之后的堆占用和映射中残留的条目数。
+ * 结束后逐个校验仍被持有的享元：再次查找必须返回同一个实例。
+ * 2、命中路径吞吐量：键集合固定且全部命中时，各策略 get 的开销。
+ * 另外在 HOT_KEYS 个热点键之间不断插入新键，调用方不持有任何享元，固定集合只有 2 * HOT_KEYS 个位置，
+ * 记录热点享元被回收后重新创建的次数：固定集合保留的是常用的享元，而不是最近创建的享元。
+ * 3、SCENE 个圆的场景：每个圆一个堆上对象与 OffHeapCircleStore 对比堆占用、直接内存占用、
+ * 场景存活时一次 Full GC 的停顿以及批量绘制的吞吐量（圆/秒）。
+ * <p>
+ * 运行方式：java -XX:MaxDirectMemorySize=1g -cp out com.company.benchmark.FlyweightBenchmark --threads=1 --out=flyweight.json
+ */
+public class FlyweightBenchmark {
+    private static final int KEYS = 1 << 20;
+    private static final int WORKING_SET = 1024;
+    private static final int HOT_KEYS = 64;
+    private static final int SCENE = 1 << 23;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int threads = benchmark.getThreads()[0];
+
+        soak(benchmark, "strong", FlyweightPattern.FlyweightFactory.Retention.STRONG, 0);
+        soak(benchmark, "weak", FlyweightPattern.FlyweightFactory.Retention.WEAK, 0);
+        soak(benchmark, "soft", FlyweightPattern.FlyweightFactory.Retention.SOFT, 0);
+        soak(benchmark, "weakPinned", FlyweightPattern.FlyweightFactory.Retention.WEAK, WORKING_SET);
+
+        FlyweightPattern.CircleKey[] hot = new FlyweightPattern.CircleKey[HOT_KEYS];
+        for (int i = 0; i < HOT_KEYS; i++) {
+            hot[i] = new FlyweightPattern.CircleKey("#" + i, FlyweightPattern.CircleKey.DEFAULT_STYLE);
+        }
+        for (FlyweightPattern.FlyweightFactory.Retention retention : FlyweightPattern.FlyweightFactory.Retention.values()) {
+            FlyweightPattern.FlyweightFactory<FlyweightPattern.CircleKey, FlyweightPattern.CircleFlyweight> factory =
+                    newFactory(retention, 0);
+            // 调用方持有全部热点享元，保证弱引用策略下也不会被回收
+            FlyweightPattern.CircleFlyweight[] held = new FlyweightPattern.CircleFlyweight[HOT_KEYS];
+            for (int i = 0; i < HOT_KEYS; i++) {
+                held[i] = factory.get(hot[i]);
+            }
+            int[] cursor = new int[1];
+            benchmark.throughput("flyweight.hit." + retention.name().toLowerCase(), threads,
+                    () -> factory.get(hot[cursor[0]++ & (HOT_KEYS - 1)]));
+            Benchmark.consume(held);
+        }
+        hotRetention(benchmark, hot);
+
+        scene(benchmark, threads);
+
+        benchmark.report();
+    }
+
+    private static void soak(Benchmark benchmark, String name,
+                             FlyweightPattern.FlyweightFactory.Retention retention, int pinned)
+            throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseline = usedHeap(memory, null);
+
+        FlyweightPattern.FlyweightFactory<FlyweightPattern.CircleKey, FlyweightPattern.CircleFlyweight> factory =
+                newFactory(retention, pinned);
+        FlyweightPattern.CircleKey[] keys = new FlyweightPattern.CircleKey[WORKING_SET];
+        FlyweightPattern.CircleFlyweight[] held = new FlyweightPattern.CircleFlyweight[WORKING_SET];
+        long start = System.nanoTime();
+        for (int i = 0; i < KEYS; i++) {
+            int slot = i & (WORKING_SET - 1);
+            keys[slot] = new FlyweightPattern.CircleKey(Integer.toHexString(i), FlyweightPattern.CircleKey.DEFAULT_STYLE);
+            held[slot] = factory.get(keys[slot]);
+        }
+        long nanos = System.nanoTime() - start;
+
+        long retained = usedHeap(memory, factory) - baseline;
+        for (int i = 0; i < WORKING_SET; i++) {
+            if (factory.get(keys[i]) != held[i]) {
+                throw new IllegalStateException(name + ": live flyweight was replaced");
+            }
+        }
+        benchmark.record("flyweight.soak." + name + ".retainedHeap", "memory", retained / 1024.0 / 1024.0, "MB");
+        benchmark.record("flyweight.soak." + name + ".liveEntries", "memory", factory.getLiveCount(), "entries");
+        benchmark.record("flyweight.soak." + name + ".miss", "soak", nanos / (double) KEYS, "ns/op");
+        Benchmark.consume(held);
+    }
+
+    private static void hotRetention(Benchmark benchmark, FlyweightPattern.CircleKey[] hot) {
+        FlyweightPattern.FlyweightFactory<FlyweightPattern.CircleKey, FlyweightPattern.CircleFlyweight> factory =
+                newFactory(FlyweightPattern.FlyweightFactory.Retention.WEAK, 2 * HOT_KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            Benchmark.consume(factory.get(
+                    new FlyweightPattern.CircleKey("cold-" + i, FlyweightPattern.CircleKey.DEFAULT_STYLE)));
+            Benchmark.consume(factory.get(hot[i & (HOT_KEYS - 1)]));
+        }
+        // 每个冷键恰好未命中一次，其余的未命中都是热点享元的创建，包括第一次创建的 HOT_KEYS 次
+        long hotCreations = factory.getMisses() - KEYS;
+        benchmark.record("flyweight.pinned.hotRecreated", "soak", hotCreations - HOT_KEYS, "creations");
+    }
+
+    private static void scene(Benchmark benchmark, int threads) throws InterruptedException {
+        String[] colors = {"Red", "Green", "Blue", "White", "Black"};
+        FlyweightPattern.CircleFlyweight[] palette = new FlyweightPattern.CircleFlyweight[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            palette[i] = FlyweightPattern.ShapeFactory.getCircleFlyweight(colors[i]);
+        }
+        long[] checksum = new long[1];
+        FlyweightPattern.CircleRenderer sum = (circle, x, y, radius) -> checksum[0] += x + y + radius;
+        sceneObjects(benchmark, threads, palette, sum, checksum);
+        sceneOffHeap(benchmark, threads, palette, sum, checksum);
+    }
+
+    private static void sceneObjects(Benchmark benchmark, int threads, FlyweightPattern.CircleFlyweight[] palette,
+                                     FlyweightPattern.CircleRenderer sum, long[] checksum)
+            throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseline = usedHeap(memory, null);
+        PlacedCircle[] objects = new PlacedCircle[SCENE];
+        for (int i = 0; i < SCENE; i++) {
+            objects[i] = new PlacedCircle(palette[i % palette.length], i & 1023, i >>> 10, 100);
+        }
+        benchmark.record("flyweight.scene.objects.heap", "memory", (usedHeap(memory, null) - baseline) / 1024.0 / 1024.0, "MB");
+        benchmark.singleShot("flyweight.scene.objects.fullGc", 5, FlyweightBenchmark::fullGcNanos);
+        benchmark.throughput("flyweight.scene.objects.drawAll", threads, 1, () -> {
+            for (PlacedCircle c : objects) {
+                sum.render(c.flyweight, c.x, c.y, c.radius);
+            }
+            return checksum[0];
+        });
+        Benchmark.consume(objects);
+    }
+
+    private static void sceneOffHeap(Benchmark benchmark, int threads, FlyweightPattern.CircleFlyweight[] palette,
+                                     FlyweightPattern.CircleRenderer sum, long[] checksum)
+            throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseline = usedHeap(memory, null);
+        FlyweightPattern.OffHeapCircleStore store = new FlyweightPattern.OffHeapCircleStore();
+        for (int i = 0; i < SCENE; i++) {
+            store.add(palette[i % palette.length], i & 1023, i >>> 10, 100);
+        }
+        benchmark.record("flyweight.scene.offHeap.heap", "memory", (usedHeap(memory, null) - baseline) / 1024.0 / 1024.0, "MB");
+        benchmark.record("flyweight.scene.offHeap.direct", "memory", store.getOffHeapBytes() / 1024.0 / 1024.0, "MB");
+        benchmark.singleShot("flyweight.scene.offHeap.fullGc", 5, FlyweightBenchmark::fullGcNanos);
+        benchmark.throughput("flyweight.scene.offHeap.drawAll", threads, 1, () -> {
+            store.drawAll(sum);
+            return checksum[0];
+        });
+        Benchmark.consume(store);
+    }
+
+    private static long fullGcNanos() {
+        long start = System.nanoTime();
+        System.gc();
+        return System.nanoTime() - start;
+    }
+
+    private static FlyweightPattern.FlyweightFactory<FlyweightPattern.CircleKey, FlyweightPattern.CircleFlyweight> newFactory(
+            FlyweightPattern.FlyweightFactory.Retention retention, int pinned) {
+        return new FlyweightPattern.FlyweightFactory<>(
+                key -> new FlyweightPattern.CircleFlyweight(key.getColor(), key.getStyle()), retention, pinned);
+    }
+
+    // 多次 Full GC 后的已用堆，尽量排除尚未回收的垃圾。
+    // 被回收的引用由 Reference Handler 线程异步入队，所以每次 GC 后稍等再清理工厂中已失效的条目
+    private static long usedHeap(MemoryMXBean memory, FlyweightPattern.FlyweightFactory<?, ?> factory)
+            throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            if (factory != null) {
+                Thread.sleep(100);
+                factory.cleanUp();
+            }
+        }
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // 每个圆一个对象的朴素表示：享元引用加三个 int
+    private static final class PlacedCircle {
+        private final FlyweightPattern.CircleFlyweight flyweight;
+        private final int x;
+        private final int y;
+        private final int radius;
+
+        PlacedCircle(FlyweightPattern.CircleFlyweight flyweight, int x, int y, int radius) {
+            this.flyweight = flyweight;
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+        }
+    }
+}
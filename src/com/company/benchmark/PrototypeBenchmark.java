@@ -0,0 +1,160 @@
+package com.company.benchmark;
+
+import com.company.creation_pattern.ProtoTypePattern;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 原型模式深拷贝的基准测试
+ * <p>
+ * 1、对同一个对象图（包含基本类型数组、共享引用和循环引用）比较三种深拷贝方式：
+ * DeepCopier、序列化、每次都通过反射查找字段的朴素实现。
+ * 2、ShapeCache 的急切克隆与写时复制克隆在只读和写入场景下的吞吐量和每次操作分配的字节数。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.PrototypeBenchmark --threads=1 --out=prototype.json
+ */
+public class PrototypeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int threads = benchmark.getThreads()[0];
+        Scene scene = Scene.sample();
+
+        Scene copy = ProtoTypePattern.DeepCopier.copy(scene);
+        if (copy == scene || copy.self != copy || copy.shapes[0] != copy.shapes[2]
+                || copy.points == scene.points || copy.points[7] != scene.points[7]) {
+            throw new IllegalStateException("DeepCopier produced a wrong copy");
+        }
+
+        benchmark.throughput("prototype.deepCopy.methodHandles", threads, 16,
+                () -> ProtoTypePattern.DeepCopier.copy(scene));
+        benchmark.throughput("prototype.deepCopy.serialization", threads, 16,
+                () -> serializationCopy(scene));
+        benchmark.throughput("prototype.deepCopy.reflection", threads, 16,
+                () -> reflectionCopy(scene, new IdentityHashMap<>()));
+        benchmark.throughput("prototype.shallowClone", threads, () -> scene.shapes[0].clone());
+
+        // 只读调用方：急切克隆和写时复制对比
+        ProtoTypePattern.ShapeCache.loadCache();
+        Supplier<?> eagerRead = () -> ProtoTypePattern.ShapeCache.getShape("1").getType();
+        Supplier<?> eagerDeepRead = () -> ProtoTypePattern.ShapeCache.getShape("1").deepClone().getType();
+        Supplier<?> cowRead = () -> ProtoTypePattern.ShapeCache.getShapeCopyOnWrite("1").getType();
+        Supplier<?> eagerWrite = () -> {
+            ProtoTypePattern.Shape shape = ProtoTypePattern.ShapeCache.getShape("1").deepClone();
+            shape.setId("x");
+            return shape;
+        };
+        Supplier<?> cowWrite = () -> {
+            ProtoTypePattern.Shape shape = ProtoTypePattern.ShapeCache.getShapeCopyOnWrite("1");
+            shape.setId("x");
+            return shape;
+        };
+        benchmark.throughput("prototype.read.eagerClone", threads, eagerRead);
+        benchmark.throughput("prototype.read.eagerDeepClone", threads, eagerDeepRead);
+        benchmark.throughput("prototype.read.copyOnWrite", threads, cowRead);
+        benchmark.throughput("prototype.write.eagerDeepClone", threads, eagerWrite);
+        benchmark.throughput("prototype.write.copyOnWrite", threads, cowWrite);
+        benchmark.allocation("prototype.read.eagerClone", eagerRead);
+        benchmark.allocation("prototype.read.eagerDeepClone", eagerDeepRead);
+        benchmark.allocation("prototype.read.copyOnWrite", cowRead);
+        benchmark.allocation("prototype.write.eagerDeepClone", eagerWrite);
+        benchmark.allocation("prototype.write.copyOnWrite", cowWrite);
+
+        benchmark.report();
+    }
+
+    private static Object serializationCopy(Object source) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(source);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 朴素的反射深拷贝：每个对象都重新查找构造方法和字段，数组逐元素复制
+    private static Object reflectionCopy(Object source, Map<Object, Object> copies) {
+        if (source == null || source instanceof String || source instanceof Number || source instanceof Enum) {
+            return source;
+        }
+        Object existing = copies.get(source);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            Class<?> type = source.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(source);
+                Object copy = Array.newInstance(type.getComponentType(), length);
+                copies.put(source, copy);
+                for (int i = 0; i < length; i++) {
+                    Array.set(copy, i, reflectionCopy(Array.get(source, i), copies));
+                }
+                return copy;
+            }
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Object copy = constructor.newInstance();
+            copies.put(source, copy);
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    Object value = field.get(source);
+                    field.set(copy, field.getType().isPrimitive() ? value : reflectionCopy(value, copies));
+                }
+            }
+            return copy;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class Scene implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+        private int[] points;
+        private double[] weights;
+        private ProtoTypePattern.Shape[] shapes;
+        private Scene self;
+
+        static Scene sample() {
+            Scene scene = new Scene();
+            scene.name = "scene";
+            scene.points = new int[256];
+            scene.weights = new double[64];
+            for (int i = 0; i < scene.points.length; i++) {
+                scene.points[i] = i * 31;
+            }
+            ProtoTypePattern.Circle circle = new ProtoTypePattern.Circle();
+            circle.setId("1");
+            ProtoTypePattern.Square square = new ProtoTypePattern.Square();
+            square.setId("2");
+            // 共享引用：第 0 个和第 2 个是同一个对象
+            scene.shapes = new ProtoTypePattern.Shape[]{circle, square, circle};
+            // 循环引用
+            scene.self = scene;
+            return scene;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.company.benchmark;
+
+import com.company.creation_pattern.ProtoTypePattern;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 原型快照启动耗时的基准测试
+ * <p>
+ * 对 COUNT 个原型比较两种启动方式：
+ * 1、loadCache 方式：逐个创建原型并放入 PrototypeRegistry（不含数据库查询本身的耗时）。
+ * 2、快照方式：用 PrototypeStore 映射快照文件，并取出第一个原型。
+ * 另外测量快照打开之后首次访问和再次访问单个原型的耗时。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.PrototypeStoreBenchmark --trials=5 --out=store.json
+ */
+public class PrototypeStoreBenchmark {
+    private static final int COUNT = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int trials = Math.min(benchmark.getTrials(), 10);
+
+        Map<String, ProtoTypePattern.Shape> prototypes = load();
+        Path file = Files.createTempFile("prototypes", ".snapshot");
+        try {
+            ProtoTypePattern.PrototypeStore.write(file, prototypes);
+            benchmark.record("prototypeStore.fileSize", "size", Files.size(file), "bytes");
+
+            benchmark.singleShot("prototypeStore.startup.loadCache", trials, () -> {
+                long start = System.nanoTime();
+                ProtoTypePattern.PrototypeRegistry<ProtoTypePattern.Shape> registry =
+                        new ProtoTypePattern.PrototypeRegistry<>(shape -> (ProtoTypePattern.Shape) shape.clone());
+                registry.putAll(load());
+                Benchmark.consume(registry.get("0"));
+                return System.nanoTime() - start;
+            });
+            benchmark.singleShot("prototypeStore.startup.mappedSnapshot", trials, () -> {
+                long start = System.nanoTime();
+                ProtoTypePattern.PrototypeStore store = open(file);
+                Benchmark.consume(store.get("0").clone());
+                return System.nanoTime() - start;
+            });
+
+            ProtoTypePattern.PrototypeStore store = open(file);
+            int[] next = {0};
+            benchmark.singleShot("prototypeStore.firstAccess", trials * 100, () -> {
+                String id = Integer.toString(next[0]++ * 7919 % COUNT);
+                long start = System.nanoTime();
+                Benchmark.consume(store.get(id));
+                return System.nanoTime() - start;
+            });
+            benchmark.throughput("prototypeStore.repeatedAccess", 1, () -> store.get("42").clone());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        benchmark.report();
+    }
+
+    private static Map<String, ProtoTypePattern.Shape> load() {
+        Map<String, ProtoTypePattern.Shape> prototypes = new LinkedHashMap<>();
+        for (int i = 0; i < COUNT; i++) {
+            ProtoTypePattern.Shape shape = i % 3 == 0 ? new ProtoTypePattern.Circle()
+                    : i % 3 == 1 ? new ProtoTypePattern.Square() : new ProtoTypePattern.Rectangle();
+            shape.setId(Integer.toString(i));
+            prototypes.put(shape.getId(), shape);
+        }
+        return prototypes;
+    }
+
+    private static ProtoTypePattern.PrototypeStore open(Path file) {
+        try {
+            return ProtoTypePattern.PrototypeStore.open(file, type -> {
+                switch (type) {
+                    case "Circle":
+                        return new ProtoTypePattern.Circle();
+                    case "Square":
+                        return new ProtoTypePattern.Square();
+                    default:
+                        return new ProtoTypePattern.Rectangle();
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.company.benchmark;
+
+import com.company.structured_pattern.ProxyPattern;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 代理模式图像加载的基准测试
+ * <p>
+ * 在临时目录中生成 FILES 个 FILE_BYTES 大小的图像文件，对 RealImage 的两种 Loader（HEAP_COPY、MEMORY_MAPPED）测量：
+ * 1、单个文件的加载耗时。文件刚写入，处于页缓存中，测得的是热缓存下的耗时。
+ * 2、同时持有全部图像时的堆占用。
+ * 3、按每行 ROW_BYTES 字节读取随机位置的 TILE x TILE 图块（视口显示）的吞吐量。
+ * 4、顺序扫描整张图像的吞吐量。
+ * 5、画廊浏览：按顺序反复浏览这些图像（偶尔随机跳转），每次显示之间有 THINK_MILLIS 毫秒的停顿，
+ * 缓存只能放下 CACHED_FILES 张图像。对比没有预取和使用 ImagePrefetcher 时 display 的耗时，并记录预取命中率、准确率和浪费的字节数。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.ProxyBenchmark --threads=1 --trials=16 --out=proxy.json
+ */
+public class ProxyBenchmark {
+    private static final int FILES = 8;
+    private static final int FILE_BYTES = 16 << 20;
+    private static final int ROW_BYTES = 4096;
+    private static final int TILE = 256;
+    private static final int CACHED_FILES = 3;
+    private static final int THINK_MILLIS = 15;
+    private static final int GALLERY_ACCESSES = 64;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+        int threads = benchmark.getThreads()[0];
+
+        Path dir = Files.createTempDirectory("proxy-images");
+        Path[] files = new Path[FILES];
+        PrintStream console = System.out;
+        try {
+            Random random = new Random(42);
+            byte[] content = new byte[FILE_BYTES];
+            for (int i = 0; i < FILES; i++) {
+                random.nextBytes(content);
+                files[i] = Files.write(dir.resolve("image-" + i + ".raw"), content);
+            }
+            // RealImage 加载时会打印日志，测量期间丢弃标准输出
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            for (ProxyPattern.RealImage.Loader loader : ProxyPattern.RealImage.Loader.values()) {
+                measure(benchmark, threads, loader, files);
+            }
+            gallery(benchmark, files);
+        } finally {
+            System.setOut(console);
+            for (Path file : files) {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+        benchmark.report();
+    }
+
+    private static void measure(Benchmark benchmark, int threads, ProxyPattern.RealImage.Loader loader, Path[] files) {
+        String prefix = "proxy.load." + loader.name().toLowerCase();
+        int[] next = {0};
+        benchmark.singleShot(prefix + ".latency", Math.max(benchmark.getTrials(), FILES), () -> {
+            String file = files[next[0]++ % FILES].toString();
+            long start = System.nanoTime();
+            Benchmark.consume(new ProxyPattern.RealImage(file, loader));
+            return System.nanoTime() - start;
+        });
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseline = usedHeap(memory);
+        ProxyPattern.RealImage[] images = new ProxyPattern.RealImage[FILES];
+        for (int i = 0; i < FILES; i++) {
+            images[i] = new ProxyPattern.RealImage(files[i].toString(), loader);
+        }
+        benchmark.record(prefix + ".retainedHeap", "memory", (usedHeap(memory) - baseline) / 1024.0 / 1024.0, "MB");
+
+        ProxyPattern.RealImage image = images[0];
+        int rows = FILE_BYTES / ROW_BYTES;
+        byte[] tile = new byte[TILE * TILE];
+        Random random = new Random(7);
+        benchmark.throughput(prefix + ".readTile", threads, 16, () -> {
+            int x = random.nextInt(ROW_BYTES - TILE);
+            int y = random.nextInt(rows - TILE);
+            image.readTile(ROW_BYTES, x, y, TILE, TILE, tile);
+            return tile;
+        });
+        benchmark.throughput(prefix + ".fullScan", threads, 1, () -> {
+            ByteBuffer data = image.getData();
+            long sum = 0;
+            for (int i = 0; i + Long.BYTES <= FILE_BYTES; i += Long.BYTES) {
+                sum += data.getLong(i);
+            }
+            return sum;
+        });
+        Benchmark.consume(images);
+    }
+
+    private static void gallery(Benchmark benchmark, Path[] files) throws InterruptedException {
+        Random random = new Random(11);
+        String[] sequence = new String[GALLERY_ACCESSES];
+        int current = 0;
+        for (int i = 0; i < GALLERY_ACCESSES; i++) {
+            current = random.nextInt(10) == 0 ? random.nextInt(FILES) : (current + 1) % FILES;
+            sequence[i] = files[current].toString();
+        }
+        long budget = (long) CACHED_FILES * FILE_BYTES;
+
+        ProxyPattern.ImageCache plainCache = new ProxyPattern.ImageCache(budget, ProxyPattern.RealImage.Loader.HEAP_COPY);
+        browse(benchmark, "proxy.gallery.noPrefetch.display", sequence,
+                name -> new ProxyPattern.ProxyImage(name, Runnable::run, plainCache));
+
+        ExecutorService loader = ProxyPattern.ProxyImage.newLoaderExecutor(2, 8);
+        ProxyPattern.ImageCache prefetchCache = new ProxyPattern.ImageCache(budget, ProxyPattern.RealImage.Loader.HEAP_COPY);
+        ProxyPattern.ImagePrefetcher prefetcher = new ProxyPattern.ImagePrefetcher(prefetchCache, loader, 2, 2, 2L * FILE_BYTES);
+        browse(benchmark, "proxy.gallery.prefetch.display", sequence, prefetcher::image);
+        loader.shutdown();
+        loader.awaitTermination(10, TimeUnit.SECONDS);
+        benchmark.record("proxy.gallery.prefetch.hitRate", "prefetch", prefetcher.getHitRate(), "ratio");
+        benchmark.record("proxy.gallery.prefetch.accuracy", "prefetch", prefetcher.getAccuracy(), "ratio");
+        benchmark.record("proxy.gallery.prefetch.wasted", "prefetch", prefetcher.getWastedBytes() / 1024.0 / 1024.0, "MB");
+    }
+
+    private static void browse(Benchmark benchmark, String name, String[] sequence,
+                               Function<String, ProxyPattern.Image> images) {
+        int[] next = {0};
+        benchmark.singleShot(name, sequence.length, () -> {
+            ProxyPattern.Image image = images.apply(sequence[next[0]++]);
+            try {
+                Thread.sleep(THINK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            long start = System.nanoTime();
+            image.display();
+            return System.nanoTime() - start;
+        });
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
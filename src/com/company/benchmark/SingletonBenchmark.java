@@ -0,0 +1,101 @@
+package com.company.benchmark;
+
+import com.company.creation_pattern.SingletonPattern;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * 单例模式各实现的基准测试
+ * <p>
+ * 测量项目：
+ * 1、getInstance() 在不同线程数下的吞吐量和延迟分位数（竞争场景）。
+ * 2、冷启动首次访问耗时：在全新的类加载器中第一次调用 getInstance()，包含类加载、初始化和实例创建。
+ * 3、类初始化耗时：类已加载但未初始化时，单独测量初始化（执行静态初始化块）的耗时。
+ * <p>
+ * 冷启动和类初始化需要每次都在新的类加载器中重新加载单例类，所以通过反射调用，
+ * 结果中包含一次反射调用的开销，各实现之间可以横向比较。
+ * <p>
+ * 运行方式：java -cp out com.company.benchmark.SingletonBenchmark --out=singleton.json
+ */
+public class SingletonBenchmark {
+    private static final String PREFIX = SingletonPattern.class.getName() + "$";
+
+    // 类名，访问方法（或字段）名
+    private static final String[][] VARIANTS = {
+            {"LazySingleton", "getInstance"},
+            {"HungrySingleton", "getInstance"},
+            {"DCLSingleton", "getSingleton"},
+            {"InnerClassSingleton", "getInstance"},
+            {"ENUMSingleton", "INSTANCE"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(args);
+
+        benchmark.throughput("singleton.lazy.getInstance", SingletonPattern.LazySingleton::getInstance);
+        benchmark.throughput("singleton.hungry.getInstance", SingletonPattern.HungrySingleton::getInstance);
+        benchmark.throughput("singleton.dcl.getInstance", SingletonPattern.DCLSingleton::getSingleton);
+        benchmark.throughput("singleton.innerClass.getInstance", SingletonPattern.InnerClassSingleton::getInstance);
+        benchmark.throughput("singleton.enum.getInstance", () -> SingletonPattern.ENUMSingleton.INSTANCE);
+
+        SingletonPattern.SingletonRegistry registry = new SingletonPattern.SingletonRegistry();
+        registry.register(Object.class, Object::new);
+        benchmark.throughput("singleton.registry.get", () -> registry.get(Object.class));
+
+        URL location = SingletonPattern.class.getProtectionDomain().getCodeSource().getLocation();
+        for (String[] variant : VARIANTS) {
+            String className = PREFIX + variant[0];
+            benchmark.singleShot("singleton." + variant[0] + ".coldFirstAccess",
+                    () -> coldFirstAccess(location, className, variant[1]));
+            benchmark.singleShot("singleton." + variant[0] + ".classInit",
+                    () -> classInit(location, className));
+        }
+
+        benchmark.report();
+    }
+
+    private static long coldFirstAccess(URL location, String className, String accessor) {
+        try (URLClassLoader loader = isolatedLoader(location)) {
+            long start = System.nanoTime();
+            Class<?> type = Class.forName(className, false, loader);
+            Benchmark.consume(access(accessor(type, accessor)));
+            return System.nanoTime() - start;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long classInit(URL location, String className) {
+        try (URLClassLoader loader = isolatedLoader(location)) {
+            Class.forName(className, false, loader);
+            long start = System.nanoTime();
+            Benchmark.consume(Class.forName(className, true, loader));
+            return System.nanoTime() - start;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 父加载器为平台类加载器，保证单例类每次都被重新加载
+    private static URLClassLoader isolatedLoader(URL location) {
+        return new URLClassLoader(new URL[]{location}, ClassLoader.getPlatformClassLoader());
+    }
+
+    private static Member accessor(Class<?> type, String name) throws ReflectiveOperationException {
+        if (type.isEnum()) {
+            return type.getField(name);
+        }
+        return type.getMethod(name);
+    }
+
+    private static Object access(Member member) throws ReflectiveOperationException {
+        if (member instanceof Method) {
+            return ((Method) member).invoke(null);
+        }
+        return ((Field) member).get(null);
+    }
+}
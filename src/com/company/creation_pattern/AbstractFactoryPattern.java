@@ -1,5 +1,16 @@
 package com.company.creation_pattern;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.function.Supplier;
+
 /**
  * 抽象工厂模式
  * 抽象工厂模式（Abstract Factory Pattern）是围绕一个超级工厂创建其他工厂。
@@ -39,43 +50,48 @@ public class AbstractFactoryPattern {
         AbstractFactory shapeFactory = FactoryProducer.getFactory(FactoryProducer.SHAPE);
 
         //获取形状为 Circle 的对象
-        Shape shape1 = shapeFactory.getShape(ShapeFactory.CIRCLE);
+        Shape shape1 = shapeFactory.getProduct(ProductKind.SHAPE, ShapeFactory.CIRCLE).get();
 
         //调用 Circle 的 draw 方法
         shape1.draw();
 
         //获取形状为 Rectangle 的对象
-        Shape shape2 = shapeFactory.getShape(ShapeFactory.RECTANGLE);
+        Shape shape2 = shapeFactory.getProduct(ProductKind.SHAPE, ShapeFactory.RECTANGLE).get();
 
         //调用 Rectangle 的 draw 方法
         shape2.draw();
 
         //获取形状为 Square 的对象
-        Shape shape3 = shapeFactory.getShape(ShapeFactory.SQUARE);
+        Shape shape3 = shapeFactory.getProduct(ProductKind.SHAPE, ShapeFactory.SQUARE).get();
 
         //调用 Square 的 draw 方法
         shape3.draw();
 
         //获取颜色工厂
-        AbstractFactory colorFactory = FactoryProducer.getFactory(FactoryProducer.COLOR);
+        AbstractFactory colorFactory = FactoryProducer.getFactory(FactoryFamily.COLOR);
 
         //获取颜色为 Red 的对象
-        Color color1 = colorFactory.getColor(ColorFactory.RED);
+        Color color1 = colorFactory.getProduct(ProductKind.COLOR, ColorFactory.RED).get();
 
         //调用 Red 的 fill 方法
         color1.fill();
 
         //获取颜色为 Green 的对象
-        Color color2 = colorFactory.getColor(ColorFactory.GREEN);
+        Color color2 = colorFactory.getProduct(ProductKind.COLOR, ColorFactory.GREEN).get();
 
         //调用 Green 的 fill 方法
         color2.fill();
 
         //获取颜色为 Blue 的对象
-        Color color3 = colorFactory.getColor(ColorFactory.BLUE);
+        Color color3 = colorFactory.getProduct(ProductKind.COLOR, ColorFactory.BLUE).get();
 
         //调用 Blue 的 fill 方法
         color3.fill();
+
+        //启动时绑定（产品种类，产品名），之后直接调用 Supplier 创建产品；不支持的种类在绑定时就会报错
+        Supplier<? extends Color> red = colorFactory.getProduct(ProductKind.COLOR, ColorFactory.RED);
+        red.get().fill();
+        System.out.println(colorFactory.supports(ProductKind.SHAPE));
     }
 
     public interface Shape {
@@ -134,10 +150,85 @@ public class AbstractFactoryPattern {
         }
     }
 
+    /**
+     * 产品种类，带有产品的接口类型，用于类型安全地查找产品
+     */
+    public static final class ProductKind<P> {
+        public static final ProductKind<Shape> SHAPE = new ProductKind<>("SHAPE", Shape.class);
+        public static final ProductKind<Color> COLOR = new ProductKind<>("COLOR", Color.class);
+
+        private final String name;
+        private final Class<P> type;
+
+        public ProductKind(String name, Class<P> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class<P> getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * 某一种产品的工厂，resolve 把产品名解析为直接创建产品的 Supplier
+     */
+    public interface ProductFactory<P> {
+        // type 不为 null，产品名未知时返回 null
+        Supplier<? extends P> resolve(String type);
+    }
+
+    /**
+     * 抽象工厂只暴露它真正支持的产品种类，具体工厂在构造时通过 register 声明。
+     * 查找不支持的产品种类会立即抛出异常，而不是返回 null；
+     * 调用方可以在启动时用 getProduct 把（产品种类，产品名）绑定成一个 Supplier，
+     * 之后每次创建都是对具体构造方法的直接调用，JIT 可以内联。
+     * 基类不提供 getShape、getColor 这类按产品种类区分的便捷方法，它们只出现在对应的具体工厂上，
+     * 通过 AbstractFactory 访问时统一使用 getProduct。
+     */
     public abstract static class AbstractFactory {
-        public abstract Color getColor(String color);
+        private final Map<ProductKind<?>, ProductFactory<?>> products = new LinkedHashMap<>();
+
+        protected <P> void register(ProductKind<P> kind, ProductFactory<P> factory) {
+            if (products.putIfAbsent(kind, factory) != null) {
+                throw new IllegalStateException("Product kind already registered: " + kind);
+            }
+        }
+
+        public Set<ProductKind<?>> getKinds() {
+            return Collections.unmodifiableSet(products.keySet());
+        }
+
+        public boolean supports(ProductKind<?> kind) {
+            return products.containsKey(kind);
+        }
 
-        public abstract Shape getShape(String shape);
+        @SuppressWarnings("unchecked")
+        public <P> ProductFactory<P> getProductFactory(ProductKind<P> kind) {
+            ProductFactory<P> factory = (ProductFactory<P>) products.get(kind);
+            if (factory == null) {
+                throw new IllegalArgumentException(getClass().getSimpleName() + " does not produce " + kind);
+            }
+            return factory;
+        }
+
+        public <P> Supplier<? extends P> getProduct(ProductKind<P> kind, String type) {
+            ProductFactory<P> factory = getProductFactory(kind);
+            Supplier<? extends P> supplier = type == null ? null : factory.resolve(type);
+            if (supplier == null) {
+                throw new IllegalArgumentException("Unknown " + kind + ": " + type);
+            }
+            return supplier;
+        }
     }
 
 
@@ -147,24 +238,73 @@ public class AbstractFactoryPattern {
         public final static String RECTANGLE = "RECTANGLE";
         public final static String SQUARE = "SQUARE";
 
-        @Override
+        //类型 id，用于批量创建
+        public final static int CIRCLE_ID = 0;
+        public final static int RECTANGLE_ID = 1;
+        public final static int SQUARE_ID = 2;
+
+        private static final List<Supplier<Shape>> SUPPLIERS = List.of(Circle::new, Rectangle::new, Square::new);
+
+        public ShapeFactory() {
+            register(ProductKind.SHAPE, shapeType -> {
+                int typeId = getTypeId(shapeType);
+                return typeId < 0 ? null : SUPPLIERS.get(typeId);
+            });
+        }
+
         public Shape getShape(String shapeType) {
+            int typeId = getTypeId(shapeType);
+            return typeId < 0 ? null : SUPPLIERS.get(typeId).get();
+        }
+
+        public int getTypeId(String shapeType) {
             if (shapeType == null) {
-                return null;
+                return -1;
             }
             if (shapeType.equalsIgnoreCase(CIRCLE)) {
-                return new Circle();
+                return CIRCLE_ID;
             } else if (shapeType.equalsIgnoreCase(RECTANGLE)) {
-                return new Rectangle();
+                return RECTANGLE_ID;
             } else if (shapeType.equalsIgnoreCase(SQUARE)) {
-                return new Square();
+                return SQUARE_ID;
             }
-            return null;
+            return -1;
         }
 
-        @Override
-        public Color getColor(String color) {
-            return null;
+        //批量创建：按类型名填充 shapes，每个不同的类型名只解析一次，未知类型填充 null
+        public void getShapes(String[] shapeTypes, Shape[] shapes) {
+            getShapes(shapeTypes, shapes, false);
+        }
+
+        public void getShapes(String[] shapeTypes, Shape[] shapes, boolean parallel) {
+            int[] typeIds = new int[shapeTypes.length];
+            Map<String, Integer> resolved = new HashMap<>();
+            for (int i = 0; i < shapeTypes.length; i++) {
+                String shapeType = shapeTypes[i];
+                typeIds[i] = shapeType == null ? -1 : resolved.computeIfAbsent(shapeType, this::getTypeId);
+            }
+            getShapes(typeIds, shapes, parallel);
+        }
+
+        //批量创建：按类型 id 填充 shapes，id 为 -1 时填充 null，其他未知 id 抛出 IllegalArgumentException
+        public void getShapes(int[] typeIds, Shape[] shapes) {
+            getShapes(typeIds, shapes, false);
+        }
+
+        //与 FactoryPattern.ShapeFactory 共用分块方式：批量足够大且要求并行时才切块并行填充
+        public void getShapes(int[] typeIds, Shape[] shapes, boolean parallel) {
+            if (shapes.length < typeIds.length) {
+                throw new IllegalArgumentException("Output array too small: " + shapes.length + " < " + typeIds.length);
+            }
+            FactoryPattern.ShapeFactory.forEachChunk(typeIds.length, parallel, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int typeId = typeIds[i];
+                    if (typeId < -1 || typeId >= SUPPLIERS.size()) {
+                        throw new IllegalArgumentException("Unknown shape type id: " + typeId);
+                    }
+                    shapes[i] = typeId < 0 ? null : SUPPLIERS.get(typeId).get();
+                }
+            });
         }
     }
 
@@ -175,39 +315,133 @@ public class AbstractFactoryPattern {
         public final static String GREEN = "GREEN";
         public final static String BLUE = "BLUE";
 
-        @Override
-        public Shape getShape(String shapeType) {
-            return null;
+        public ColorFactory() {
+            register(ProductKind.COLOR, ColorFactory::resolve);
         }
 
-        @Override
         public Color getColor(String color) {
-            if (color == null) {
-                return null;
-            }
+            Supplier<Color> supplier = color == null ? null : resolve(color);
+            return supplier == null ? null : supplier.get();
+        }
+
+        private static Supplier<Color> resolve(String color) {
             if (color.equalsIgnoreCase(RED)) {
-                return new Red();
+                return Red::new;
             } else if (color.equalsIgnoreCase(GREEN)) {
-                return new Green();
+                return Green::new;
             } else if (color.equalsIgnoreCase(BLUE)) {
-                return new Blue();
+                return Blue::new;
             }
             return null;
         }
     }
 
+    /**
+     * 内置的产品族 id
+     */
+    public enum FactoryFamily {
+        SHAPE, COLOR
+    }
+
+    /**
+     * 产品族提供者，启动时通过 ServiceLoader 发现并注册。
+     * 在 META-INF/services/com.company.creation_pattern.AbstractFactoryPattern$FactoryProvider 中列出实现类即可。
+     */
+    public interface FactoryProvider {
+        String name();
+
+        // 对应的内置产品族，没有时返回 null，只能按名称查找
+        default FactoryFamily family() {
+            return null;
+        }
+
+        AbstractFactory create();
+    }
+
+    /**
+     * 工厂生产者
+     * <p>
+     * 每个产品族的工厂只注册一次，作为不可变的共享实例缓存起来，可以按 FactoryFamily 或名称查找。
+     * 注册表是写时复制的不可变快照，通过 volatile 发布：查找不加锁，按 FactoryFamily 查找是一次数组访问，
+     * 按名称查找是一次 HashMap 查找。注册只在启动时发生，可以调用 loadProviders 从 ServiceLoader 批量预注册。
+     */
     public static class FactoryProducer {
         public final static String SHAPE = "SHAPE";
         public final static String COLOR = "COLOR";
 
+        private static volatile Families families = new Families(new AbstractFactory[FactoryFamily.values().length],
+                new HashMap<>());
+
+        static {
+            register(FactoryFamily.SHAPE, new ShapeFactory());
+            register(FactoryFamily.COLOR, new ColorFactory());
+        }
+
         public static AbstractFactory getFactory(String choice) {
+            if (choice == null) {
+                return null;
+            }
+            Map<String, AbstractFactory> byName = families.byName;
+            AbstractFactory factory = byName.get(choice);
+            return factory != null ? factory : byName.get(choice.toUpperCase(Locale.ROOT));
+        }
+
+        public static AbstractFactory getFactory(FactoryFamily family) {
+            return families.byFamily[family.ordinal()];
+        }
 
-            if (choice.equalsIgnoreCase(SHAPE)) {
-                return new ShapeFactory();
-            } else if (choice.equalsIgnoreCase(COLOR)) {
-                return new ColorFactory();
+        //绑定（产品族，产品种类，产品名），任一部分不支持时立即抛出异常
+        public static <P> Supplier<? extends P> getProduct(FactoryFamily family, ProductKind<P> kind, String type) {
+            AbstractFactory factory = getFactory(family);
+            if (factory == null) {
+                throw new IllegalArgumentException("Factory family not registered: " + family);
+            }
+            return factory.getProduct(kind, type);
+        }
+
+        public static void register(FactoryFamily family, AbstractFactory factory) {
+            register(family, family.name(), factory);
+        }
+
+        public static void register(String name, AbstractFactory factory) {
+            register(null, name, factory);
+        }
+
+        // 注册很少发生，加锁后复制出新的快照再整体发布
+        private static synchronized void register(FactoryFamily family, String name, AbstractFactory factory) {
+            Objects.requireNonNull(factory, "factory");
+            String key = name.toUpperCase(Locale.ROOT);
+            Families current = families;
+            if (current.byName.containsKey(key) || family != null && current.byFamily[family.ordinal()] != null) {
+                throw new IllegalStateException("Factory family already registered: " + name);
+            }
+            AbstractFactory[] byFamily = current.byFamily.clone();
+            if (family != null) {
+                byFamily[family.ordinal()] = factory;
+            }
+            Map<String, AbstractFactory> byName = new HashMap<>(current.byName);
+            byName.put(key, factory);
+            families = new Families(byFamily, byName);
+        }
+
+        public static void loadProviders() {
+            loadProviders(Thread.currentThread().getContextClassLoader());
+        }
+
+        public static void loadProviders(ClassLoader classLoader) {
+            for (FactoryProvider provider : ServiceLoader.load(FactoryProvider.class, classLoader)) {
+                register(provider.family(), provider.name(), provider.create());
+            }
+        }
+
+        private static final class Families {
+            private final AbstractFactory[] byFamily;
+            private final Map<String, AbstractFactory> byName;
+
+            Families(AbstractFactory[] byFamily, Map<String, AbstractFactory> byName) {
+                this.byFamily = byFamily;
+                this.byName = byName;
             }
-            return null;
         }
     }
 }
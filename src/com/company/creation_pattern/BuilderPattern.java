@@ -1,7 +1,15 @@
 package com.company.creation_pattern;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * 建造者模式
@@ -56,12 +64,35 @@ public class BuilderPattern {
         System.out.println("\n\nNon-Veg Meal");
         nonVegMeal.showItems();
         System.out.println("Total Cost: " +nonVegMeal.getCost());
+        System.out.println("Subtotals (cents): " + nonVegMeal.getSubtotals());
+
+        //用完后归还，下一个套餐复用同一个 Meal 对象
+        mealBuilder.release(vegMeal);
+        Meal reused = mealBuilder.prepareVegMeal();
+        System.out.println("\n\nReused: " + (reused == vegMeal) + ", Total Cost: " + reused.getCost());
+
+        //批量建造并按列定价
+        MealBatch batch = new MealBatch();
+        mealBuilder.prepareVegMeals(batch, 3);
+        mealBuilder.prepareNonVegMeals(batch, 2);
+        System.out.println("Batch of " + batch.getMealCount() + " meals, Total Cost (cents): " + batch.getTotalCents()
+                + ", by packing: " + batch.getSubtotalsByPacking());
     }
 
     public interface Item {
         public String name();
         public Packing packing();
         public float price();
+
+        //以分为单位的精确价格，用于累计总价，避免 float 累加误差
+        public default long priceCents() {
+            return Math.round(price() * 100.0);
+        }
+
+        //条目所属的类别，用于分类小计
+        public default String category() {
+            return packing().pack();
+        }
     }
 
     public interface Packing {
@@ -69,6 +100,8 @@ public class BuilderPattern {
     }
 
     public static class Wrapper implements Packing {
+        // 包装没有状态，所有汉堡共享同一个实例
+        public static final Wrapper INSTANCE = new Wrapper();
 
         @Override
         public String pack() {
@@ -77,6 +110,7 @@ public class BuilderPattern {
     }
 
     public static class Bottle implements Packing {
+        public static final Bottle INSTANCE = new Bottle();
 
         @Override
         public String pack() {
@@ -88,7 +122,12 @@ public class BuilderPattern {
 
         @Override
         public Packing packing() {
-            return new Wrapper();
+            return Wrapper.INSTANCE;
+        }
+
+        @Override
+        public String category() {
+            return "Burger";
         }
 
         @Override
@@ -99,7 +138,12 @@ public class BuilderPattern {
 
         @Override
         public Packing packing() {
-            return new Bottle();
+            return Bottle.INSTANCE;
+        }
+
+        @Override
+        public String category() {
+            return "Cold Drink";
         }
 
         @Override
@@ -158,19 +202,112 @@ public class BuilderPattern {
         }
     }
 
+    /**
+     * 套餐
+     * <p>
+     * 总价和各类别小计在 addItem / removeItem 时增量维护，以分为单位用 long 精确累计，
+     * getCost 不再遍历条目，上千个条目的大订单取价也是 O(1)。
+     */
     public static class Meal {
         private List<Item> items = new ArrayList<Item>();
+        private long costCents;
+        // 类别 -> 小计（分），用 long[1] 作为可变计数单元，reset 时只清零不删除，复用套餐时不产生装箱和新节点
+        private final Map<String, long[]> subtotalCents = new HashMap<>();
+        // 不可变快照（例如 ConcurrentMealOrder.build 的结果）不能再修改
+        private final boolean frozen;
+        // 已经通过 MealBuilder.release 归还，用于拒绝重复归还
+        private boolean released;
+
+        public Meal() {
+            this.frozen = false;
+        }
+
+        private Meal(List<Item> items) {
+            for (Item item : items) {
+                append(item);
+            }
+            this.frozen = true;
+        }
 
         public void addItem(Item item){
+            checkMutable();
+            append(item);
+        }
+
+        private void append(Item item){
             items.add(item);
+            long cents = item.priceCents();
+            costCents += cents;
+            long[] subtotal = subtotalCents.get(item.category());
+            if (subtotal == null) {
+                subtotal = new long[1];
+                subtotalCents.put(item.category(), subtotal);
+            }
+            subtotal[0] += cents;
         }
 
-        public float getCost(){
-            float cost = 0.0f;
-            for (Item item : items) {
-                cost += item.price();
+        //移除一个条目，套餐中没有该条目时返回 false
+        public boolean removeItem(Item item){
+            checkMutable();
+            if (!items.remove(item)) {
+                return false;
             }
-            return cost;
+            long cents = item.priceCents();
+            costCents -= cents;
+            subtotalCents.get(item.category())[0] -= cents;
+            return true;
+        }
+
+        //清空条目以便复用，保留 ArrayList 已分配的容量
+        public void reset(){
+            checkMutable();
+            items.clear();
+            costCents = 0;
+            for (long[] subtotal : subtotalCents.values()) {
+                subtotal[0] = 0;
+            }
+        }
+
+        private void checkMutable(){
+            if (frozen) {
+                throw new UnsupportedOperationException("Meal snapshot is immutable");
+            }
+        }
+
+        public boolean isFrozen(){
+            return frozen;
+        }
+
+        public int getItemCount(){
+            return items.size();
+        }
+
+        public float getCost(){
+            return costCents / 100.0f;
+        }
+
+        public long getCostCents(){
+            return costCents;
+        }
+
+        public BigDecimal getCostDecimal(){
+            return BigDecimal.valueOf(costCents, 2);
+        }
+
+        public long getSubtotalCents(String category){
+            long[] subtotal = subtotalCents.get(category);
+            return subtotal == null ? 0 : subtotal[0];
+        }
+
+        //各类别小计（分），只包含小计不为 0 的类别
+        public Map<String, Long> getSubtotals(){
+            Map<String, Long> subtotals = new LinkedHashMap<>();
+            subtotalCents.forEach((category, subtotal) -> {
+                if (subtotal[0] != 0) {
+                    subtotals.put(category, subtotal[0]);
+                }
+            });
+            return Collections.unmodifiableMap(subtotals);
         }
 
         public void showItems(){
@@ -182,21 +319,329 @@ public class BuilderPattern {
         }
     }
 
+    /**
+     * 支持多线程并发添加条目的订单
+     * <p>
+     * Meal 内部是普通的 ArrayList，不是线程安全的。ConcurrentMealOrder 把条目分散到多个分段中，
+     * 每个线程按线程 id 固定落到其中一个分段，只锁住这个分段，多个后厨线程同时加菜时基本没有锁竞争。
+     * build 依次锁住每个分段、关闭它并合并条目，得到一个不可变的 Meal 快照；
+     * build 之后再 addItem 会抛出 IllegalStateException，不会有条目在合并时丢失。
+     * 同一个线程添加的条目在快照中保持添加顺序，不同线程之间的顺序不做保证。
+     */
+    public static class ConcurrentMealOrder {
+        private final Stripe[] stripes;
+        private final int mask;
+
+        public ConcurrentMealOrder() {
+            this(Runtime.getRuntime().availableProcessors() * 2);
+        }
+
+        public ConcurrentMealOrder(int concurrency) {
+            int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+            stripes = new Stripe[size];
+            for (int i = 0; i < size; i++) {
+                stripes[i] = new Stripe();
+            }
+            mask = size - 1;
+        }
+
+        public void addItem(Item item){
+            Stripe stripe = stripes[stripeIndex()];
+            synchronized (stripe) {
+                if (stripe.closed) {
+                    throw new IllegalStateException("Order already built");
+                }
+                stripe.items.add(item);
+            }
+        }
+
+        private int stripeIndex() {
+            long id = Thread.currentThread().getId();
+            int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        //关闭订单并返回不可变的套餐快照
+        public Meal build(){
+            List<Item> merged = new ArrayList<>();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    if (stripe.closed) {
+                        throw new IllegalStateException("Order already built");
+                    }
+                    stripe.closed = true;
+                    merged.addAll(stripe.items);
+                    stripe.items = null;
+                }
+            }
+            return new Meal(merged);
+        }
+
+        private static final class Stripe {
+            private List<Item> items = new ArrayList<>();
+            private boolean closed;
+        }
+    }
+
+    /**
+     * 列式存储的一批套餐
+     * <p>
+     * 报表需要对整批套餐定价时，每个 Meal 一个 List<Item>、逐个虚调用 price() 对缓存很不友好。
+     * MealBatch 把所有条目按列存放在基本类型数组中：条目类型 id、价格（分）、包装 id，
+     * 以及每个套餐在这些数组中的起始位置。
+     * 1、求和是对 long[] 的顺序循环，JIT 可以自动向量化。
+     * 2、按包装分组时，对每种包装做一次无分支的掩码求和，同样可以向量化。
+     * 3、并行版本把数组切块后交给并行流处理。
+     * 条目类型和包装按实例登记在批次内部的目录中，同一种条目只登记一次。
+     */
+    public static class MealBatch {
+        private static final int PARALLEL_CHUNK = 1 << 16;
+
+        private final List<Item> itemTypes = new ArrayList<>();
+        private final Map<Item, Integer> itemTypeIds = new IdentityHashMap<>();
+        private final List<String> packings = new ArrayList<>();
+        private final Map<String, Integer> packingIds = new HashMap<>();
+        private long[] typePrices = new long[4];
+        private int[] typePackings = new int[4];
+
+        private int[] types;
+        private long[] prices;
+        private int[] packingColumn;
+        private int size;
+        private int[] mealOffsets;
+        private int mealCount;
+
+        public MealBatch() {
+            this(16, 32);
+        }
+
+        public MealBatch(int expectedMeals, int expectedItems) {
+            types = new int[Math.max(1, expectedItems)];
+            prices = new long[types.length];
+            packingColumn = new int[types.length];
+            mealOffsets = new int[Math.max(1, expectedMeals) + 1];
+        }
+
+        //条目类型 id，第一次出现时登记
+        public int typeId(Item item) {
+            Integer id = itemTypeIds.get(item);
+            if (id != null) {
+                return id;
+            }
+            int typeId = itemTypes.size();
+            itemTypes.add(item);
+            itemTypeIds.put(item, typeId);
+            if (typeId == typePrices.length) {
+                typePrices = Arrays.copyOf(typePrices, typeId * 2);
+                typePackings = Arrays.copyOf(typePackings, typeId * 2);
+            }
+            typePrices[typeId] = item.priceCents();
+            typePackings[typeId] = packingId(item.packing().pack());
+            return typeId;
+        }
+
+        private int packingId(String packing) {
+            return packingIds.computeIfAbsent(packing, p -> {
+                packings.add(p);
+                return packings.size() - 1;
+            });
+        }
+
+        public void addMeal(Item... items) {
+            int[] ids = new int[items.length];
+            for (int i = 0; i < items.length; i++) {
+                ids[i] = typeId(items[i]);
+            }
+            addMeals(ids, 1);
+        }
+
+        //追加 count 个相同组成的套餐，typeIds 为一个套餐内的条目类型 id，必须是 typeId 返回过的 id
+        public void addMeals(int[] typeIds, int count) {
+            if (count < 0) {
+                throw new IllegalArgumentException("count must be >= 0: " + count);
+            }
+            for (int typeId : typeIds) {
+                if (typeId < 0 || typeId >= itemTypes.size()) {
+                    throw new IllegalArgumentException("Unknown item type id: " + typeId);
+                }
+            }
+            ensureCapacity(count, Math.multiplyExact(count, typeIds.length));
+            for (int m = 0; m < count; m++) {
+                for (int typeId : typeIds) {
+                    types[size] = typeId;
+                    prices[size] = typePrices[typeId];
+                    packingColumn[size] = typePackings[typeId];
+                    size++;
+                }
+                mealOffsets[++mealCount] = size;
+            }
+        }
+
+        private void ensureCapacity(int moreMeals, int moreItems) {
+            int items = Math.addExact(size, moreItems);
+            int offsets = Math.addExact(Math.addExact(mealCount, moreMeals), 1);
+            if (items > types.length) {
+                int capacity = Math.max(types.length * 2, items);
+                types = Arrays.copyOf(types, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                packingColumn = Arrays.copyOf(packingColumn, capacity);
+            }
+            if (offsets > mealOffsets.length) {
+                mealOffsets = Arrays.copyOf(mealOffsets, Math.max(mealOffsets.length * 2, offsets));
+            }
+        }
+
+        public int getMealCount() {
+            return mealCount;
+        }
+
+        public int getItemCount() {
+            return size;
+        }
+
+        public Item getItem(int index) {
+            return itemTypes.get(types[index]);
+        }
+
+        public long getMealCostCents(int meal) {
+            return sum(prices, mealOffsets[meal], mealOffsets[meal + 1]);
+        }
+
+        public long getTotalCents() {
+            return sum(prices, 0, size);
+        }
+
+        public long getTotalCentsParallel() {
+            return IntStream.range(0, chunks()).parallel()
+                    .mapToLong(c -> sum(prices, c * PARALLEL_CHUNK, Math.min(size, (c + 1) * PARALLEL_CHUNK)))
+                    .sum();
+        }
+
+        //按包装分组的小计（分），键为包装名称
+        public Map<String, Long> getSubtotalsByPacking() {
+            return toMap(subtotalsByPacking(0, size));
+        }
+
+        public Map<String, Long> getSubtotalsByPackingParallel() {
+            long[] totals = IntStream.range(0, chunks()).parallel()
+                    .mapToObj(c -> subtotalsByPacking(c * PARALLEL_CHUNK, Math.min(size, (c + 1) * PARALLEL_CHUNK)))
+                    .reduce(new long[packings.size()], (a, b) -> {
+                        long[] r = a.clone();
+                        for (int i = 0; i < r.length; i++) {
+                            r[i] += b[i];
+                        }
+                        return r;
+                    });
+            return toMap(totals);
+        }
+
+        private int chunks() {
+            return (size + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        }
+
+        private long[] subtotalsByPacking(int from, int to) {
+            long[] totals = new long[packings.size()];
+            for (int p = 0; p < totals.length; p++) {
+                long total = 0;
+                for (int i = from; i < to; i++) {
+                    total += packingColumn[i] == p ? prices[i] : 0;
+                }
+                totals[p] = total;
+            }
+            return totals;
+        }
+
+        private Map<String, Long> toMap(long[] totals) {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (int p = 0; p < totals.length; p++) {
+                result.put(packings.get(p), totals[p]);
+            }
+            return result;
+        }
+
+        private static long sum(long[] values, int from, int to) {
+            long total = 0;
+            for (int i = from; i < to; i++) {
+                total += values[i];
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 套餐建造者
+     * <p>
+     * 条目和包装都是无状态的，建造时共享同一组实例，不再为每个套餐创建新的条目对象。
+     * 用完的套餐可以通过 release 交还给建造者，下一次 prepare 时清空后复用，
+     * 连同其中的 ArrayList 一起复用，稳定状态下建造套餐不分配任何对象。
+     * 不调用 release 时行为与原来一样，每次都得到一个新套餐。
+     * <p>
+     * MealBuilder 不是线程安全的，每个线程应使用自己的建造者；release 之后调用方不能再使用该套餐。
+     */
     public static class MealBuilder {
+        private static final int MAX_FREE_MEALS = 64;
+
+        private static final Item VEG_BURGER = new VegBurger();
+        private static final Item CHICKEN_BURGER = new ChickenBurger();
+        private static final Item COKE = new Coke();
+        private static final Item PEPSI = new Pepsi();
+
+        private final Meal[] freeMeals = new Meal[MAX_FREE_MEALS];
+        private int freeCount;
 
         public Meal prepareVegMeal (){
-            Meal meal = new Meal();
-            meal.addItem(new VegBurger());
-            meal.addItem(new Coke());
+            Meal meal = acquire();
+            meal.addItem(VEG_BURGER);
+            meal.addItem(COKE);
             return meal;
         }
 
         public Meal prepareNonVegMeal (){
-            Meal meal = new Meal();
-            meal.addItem(new ChickenBurger());
-            meal.addItem(new Pepsi());
+            Meal meal = acquire();
+            meal.addItem(CHICKEN_BURGER);
+            meal.addItem(PEPSI);
             return meal;
         }
+
+        //多个线程共同添加条目的订单，完成后调用 build 得到不可变套餐
+        public ConcurrentMealOrder newConcurrentOrder(){
+            return new ConcurrentMealOrder();
+        }
+
+        //批量建造 count 个素食套餐，直接写入列式批次
+        public MealBatch prepareVegMeals(MealBatch batch, int count){
+            batch.addMeals(new int[]{batch.typeId(VEG_BURGER), batch.typeId(COKE)}, count);
+            return batch;
+        }
+
+        public MealBatch prepareNonVegMeals(MealBatch batch, int count){
+            batch.addMeals(new int[]{batch.typeId(CHICKEN_BURGER), batch.typeId(PEPSI)}, count);
+            return batch;
+        }
+
+        //取一个空套餐，优先复用已归还的套餐
+        public Meal acquire(){
+            if (freeCount == 0) {
+                return new Meal();
+            }
+            Meal meal = freeMeals[--freeCount];
+            freeMeals[freeCount] = null;
+            meal.released = false;
+            return meal;
+        }
+
+        //归还套餐，超出上限的套餐和不可变快照直接丢弃交给 GC；
+        //同一个套餐重复归还会抛出异常，否则它会在空闲列表中出现两次，之后被两个调用方同时使用
+        public void release(Meal meal){
+            if (meal.released) {
+                throw new IllegalStateException("Meal already released");
+            }
+            meal.released = true;
+            if (freeCount < MAX_FREE_MEALS && !meal.isFrozen()) {
+                meal.reset();
+                freeMeals[freeCount++] = meal;
+            }
+        }
     }
 
 }
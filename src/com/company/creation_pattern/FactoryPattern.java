@@ -1,5 +1,20 @@
 package com.company.creation_pattern;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * 工厂模式
@@ -57,6 +72,22 @@ public class FactoryPattern {
 
         //调用 Square 的 draw 方法
         shape3.draw();
+
+        //预先解析类型名，循环中直接通过 Supplier 创建对象
+        Supplier<Shape> circles = shapeFactory.resolve("circle");
+        for (int i = 0; i < 2; i++) {
+            circles.get().draw();
+        }
+
+        //批量创建，每个不同的类型名只解析一次
+        Shape[] shapes = new Shape[3];
+        shapeFactory.getShapes(new String[]{"circle", "square", "circle"}, shapes);
+        for (Shape shape : shapes) {
+            shape.draw();
+        }
+
+        //无状态的形状默认共享同一个实例，可以查看每种产品节省的对象数
+        System.out.println(shapeFactory.getProducts().values());
     }
 
     public interface Shape {
@@ -88,29 +119,472 @@ public class FactoryPattern {
     }
 
 
+    /**
+     * 基于注册的形状工厂
+     * <p>
+     * 构造时把所有注册的类型名编译成一张不可变的、大小写不敏感的完美哈希分派表：
+     * 1、查找时边计算哈希边做 ASCII 大小写折叠，不创建新字符串，也不逐个 equalsIgnoreCase 比较，O(1) 定位。
+     * 2、通过 resolve 可以预先取得某个类型的 Supplier，在循环中直接调用，完全省掉名称查找。
+     * 3、分派表按两级的哈希-位移（hash-and-displace）方式构造：先按哈希把类型名分到平均 BUCKET_SIZE 个名称的桶里，
+     * 再从最大的桶开始，为每个桶找一个位移值，使桶内的名称都落到互不冲突的空槽上。
+     * 表大小和位移数组都与类型数成正比，注册多少种类型都能在线性空间内构造；查找时只多读一次位移数组。
+     * <p>
+     * 每种产品可以单独指定创建策略（CreationPolicy），避免无状态产品反复创建带来的 GC 压力，
+     * 并通过 getProducts 查看每种产品实际创建的对象数和节省的对象数。
+     */
     public static class ShapeFactory {
         public static final String SQUARE = "SQUARE";
         public static final String RECTANGLE = "RECTANGLE";
         public static final String CIRCLE = "CIRCLE";
 
+        private static final int MAX_SEED_ATTEMPTS = 64;
+        // 单个桶最多尝试这么多个位移值，仍然放不下时换一个全局种子重新构造
+        private static final int MAX_DISPLACEMENTS = 1 << 16;
+        // 平均每个桶的类型名个数
+        private static final int BUCKET_SIZE = 4;
+        private static final long FNV_PRIME = 0x100000001B3L;
+        private static final int DEFAULT_POOL_SIZE = 64;
+        private static final int PARALLEL_THRESHOLD = 1 << 14;
+        private static final int PARALLEL_CHUNK = 1 << 12;
+
+        private final char[][] names;
+        private final Product[] products;
+        private final int[] displacements;
+        private final int mask;
+        private final int bucketMask;
+        private final int seed;
+        private final long multiplier;
+
+        public ShapeFactory() {
+            this(builder()
+                    .register(CIRCLE, Circle::new, CreationPolicy.SHARED)
+                    .register(RECTANGLE, Rectangle::new, CreationPolicy.SHARED)
+                    .register(SQUARE, Square::new, CreationPolicy.SHARED));
+        }
+
+        private ShapeFactory(Builder builder) {
+            List<String> keys = new ArrayList<>(builder.registrations.keySet());
+            int count = keys.size();
+            // 负载因子不超过 0.8，最后放置的单个名称平均几次尝试就能找到空槽
+            int size = tableSize(count + count / 4 + 1);
+            int buckets = tableSize((count + BUCKET_SIZE - 1) / BUCKET_SIZE);
+            for (int candidate = 0; candidate < MAX_SEED_ATTEMPTS; candidate++) {
+                int[] displacements = new int[buckets];
+                char[][] table = place(keys, size - 1, buckets - 1, candidate, displacements);
+                if (table != null) {
+                    this.names = table;
+                    this.displacements = displacements;
+                    this.mask = size - 1;
+                    this.bucketMask = buckets - 1;
+                    this.seed = candidate;
+                    this.multiplier = multiplier(candidate);
+                    this.products = new Product[size];
+                    for (int slot = 0; slot < size; slot++) {
+                        if (table[slot] != null) {
+                            products[slot] = builder.registrations.get(new String(table[slot]));
+                        }
+                    }
+                    return;
+                }
+            }
+            // 只有同一个桶里的两个名称 64 位哈希的低 32 位在每个种子下都相同时才会走到这里
+            throw new IllegalStateException("Cannot build a collision-free dispatch table for " + keys);
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        private static int tableSize(int n) {
+            return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+        }
+
+        // 用给定的种子把所有类型名放进表中，并填好每个桶的位移值；某个桶找不到位移值时返回 null
+        private static char[][] place(List<String> keys, int mask, int bucketMask, int seed, int[] displacements) {
+            int count = keys.size();
+            char[][] names = new char[count][];
+            long[] hashes = new long[count];
+            int[] bucketSizes = new int[bucketMask + 1];
+            for (int i = 0; i < count; i++) {
+                names[i] = keys.get(i).toCharArray();
+                hashes[i] = hash(names[i], seed);
+                bucketSizes[bucket(hashes[i], bucketMask)]++;
+            }
+            // 按桶分组：members[starts[b], starts[b + 1]) 是桶 b 中的名称下标
+            int[] starts = new int[bucketMask + 2];
+            int maxBucketSize = 0;
+            for (int b = 0; b <= bucketMask; b++) {
+                starts[b + 1] = starts[b] + bucketSizes[b];
+                maxBucketSize = Math.max(maxBucketSize, bucketSizes[b]);
+            }
+            int[] next = Arrays.copyOf(starts, bucketMask + 1);
+            int[] members = new int[count];
+            for (int i = 0; i < count; i++) {
+                members[next[bucket(hashes[i], bucketMask)]++] = i;
+            }
+
+            char[][] table = new char[mask + 1][];
+            int[] slots = new int[maxBucketSize];
+            // 大桶先放，此时表中空槽最多
+            for (int bucketSize = maxBucketSize; bucketSize > 0; bucketSize--) {
+                for (int b = 0; b <= bucketMask; b++) {
+                    if (bucketSizes[b] != bucketSize) {
+                        continue;
+                    }
+                    int displacement = 0;
+                    search:
+                    for (; displacement < MAX_DISPLACEMENTS; displacement++) {
+                        for (int j = 0; j < bucketSize; j++) {
+                            int slot = slot(hashes[members[starts[b] + j]], displacement, mask);
+                            if (table[slot] != null) {
+                                continue search;
+                            }
+                            for (int k = 0; k < j; k++) {
+                                if (slots[k] == slot) {
+                                    continue search;
+                                }
+                            }
+                            slots[j] = slot;
+                        }
+                        break;
+                    }
+                    if (displacement == MAX_DISPLACEMENTS) {
+                        return null;
+                    }
+                    displacements[b] = displacement;
+                    for (int j = 0; j < bucketSize; j++) {
+                        table[slots[j]] = names[members[starts[b] + j]];
+                    }
+                }
+            }
+            return table;
+        }
+
+        private static long hash(char[] folded, int seed) {
+            long h = seed;
+            long multiplier = multiplier(seed);
+            for (char c : folded) {
+                h = (h ^ c) * multiplier;
+            }
+            return mix(h);
+        }
+
+        // 种子参与每一步的乘法：如果只作为初始值，哈希值相同的两个等长名称在任何种子下都会冲突
+        private static long multiplier(int seed) {
+            return FNV_PRIME + ((long) seed << 1);
+        }
+
+        private static long mix(long h) {
+            h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+            h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return h ^ (h >>> 33);
+        }
+
+        // 高 32 位选桶，低 32 位和桶的位移值一起决定槽位
+        private static int bucket(long hash, int bucketMask) {
+            return (int) (hash >>> 32) & bucketMask;
+        }
+
+        private static int slot(long hash, int displacement, int mask) {
+            int h = (int) hash ^ displacement * 0x9E3779B9;
+            h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+            h = (h ^ (h >>> 13)) * 0xC2B2AE35;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        static char fold(char c) {
+            if (c < 128) {
+                return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+            }
+            return Character.toUpperCase(Character.toLowerCase(c));
+        }
+
+        private int indexOf(String shapeType) {
+            long h = seed;
+            long multiplier = this.multiplier;
+            int length = shapeType.length();
+            for (int i = 0; i < length; i++) {
+                h = (h ^ fold(shapeType.charAt(i))) * multiplier;
+            }
+            h = mix(h);
+            int slot = slot(h, displacements[bucket(h, bucketMask)], mask);
+            char[] name = names[slot];
+            if (name == null || name.length != length) {
+                return -1;
+            }
+            for (int i = 0; i < length; i++) {
+                if (name[i] != fold(shapeType.charAt(i))) {
+                    return -1;
+                }
+            }
+            return slot;
+        }
 
         //使用 getShape 方法获取形状类型的对象
         public Shape getShape(String shapeType) {
             if (shapeType == null) {
                 return null;
             }
-            if (shapeType.equalsIgnoreCase(CIRCLE)) {
-                return new Circle();
-            } else if (shapeType.equalsIgnoreCase(RECTANGLE)) {
-                return new Rectangle();
-            } else if (shapeType.equalsIgnoreCase(SQUARE)) {
-                return new Square();
+            int slot = indexOf(shapeType);
+            return slot < 0 ? null : products[slot].get();
+        }
 
+        //预先解析类型名，返回的 Product 可以在循环中重复使用
+        public Product resolve(String shapeType) {
+            int slot = shapeType == null ? -1 : indexOf(shapeType);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Unknown shape type: " + shapeType);
             }
-            return null;
+            return products[slot];
         }
-    }
 
-}
+        //类型名对应的类型 id，未注册时返回 -1；id 在同一个工厂实例内稳定，可用于批量创建
+        public int getTypeId(String shapeType) {
+            return shapeType == null ? -1 : indexOf(shapeType);
+        }
 
+        //批量创建：按类型名填充 shapes，每个不同的类型名只解析一次，未知类型填充 null
+        public void getShapes(String[] shapeTypes, Shape[] shapes) {
+            getShapes(shapeTypes, shapes, false);
+        }
 
+        public void getShapes(String[] shapeTypes, Shape[] shapes, boolean parallel) {
+            checkLength(shapeTypes.length, shapes.length);
+            forEachChunk(shapeTypes.length, parallel, (from, to) -> fill(shapeTypes, shapes, from, to));
+        }
+
+        //批量创建：按类型 id 填充 shapes，省掉名称解析
+        public void getShapes(int[] typeIds, Shape[] shapes) {
+            getShapes(typeIds, shapes, false);
+        }
+
+        public void getShapes(int[] typeIds, Shape[] shapes, boolean parallel) {
+            checkLength(typeIds.length, shapes.length);
+            forEachChunk(typeIds.length, parallel, (from, to) -> fill(typeIds, shapes, from, to));
+        }
+
+        private void fill(String[] shapeTypes, Shape[] shapes, int from, int to) {
+            Map<String, Product> resolved = new HashMap<>();
+            String lastType = null;
+            Product last = null;
+            for (int i = from; i < to; i++) {
+                String shapeType = shapeTypes[i];
+                if (shapeType != lastType) {
+                    lastType = shapeType;
+                    last = shapeType == null ? null : resolved.computeIfAbsent(shapeType, type -> {
+                        int slot = indexOf(type);
+                        return slot < 0 ? null : products[slot];
+                    });
+                }
+                shapes[i] = last == null ? null : last.get();
+            }
+        }
+
+        private void fill(int[] typeIds, Shape[] shapes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int typeId = typeIds[i];
+                Product product = typeId >= 0 && typeId < products.length ? products[typeId] : null;
+                if (product == null) {
+                    throw new IllegalArgumentException("Unknown shape type id: " + typeId);
+                }
+                shapes[i] = product.get();
+            }
+        }
+
+        private static void checkLength(int inputLength, int outputLength) {
+            if (outputLength < inputLength) {
+                throw new IllegalArgumentException("Output array too small: " + outputLength + " < " + inputLength);
+            }
+        }
+
+        // 批量较大且要求并行时，切成若干块在 ForkJoin 公共池上并行填充
+        static void forEachChunk(int length, boolean parallel, IntBinaryConsumer chunk) {
+            if (!parallel || length < PARALLEL_THRESHOLD) {
+                chunk.accept(0, length);
+                return;
+            }
+            int chunks = (length + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+            IntStream.range(0, chunks).parallel().forEach(c ->
+                    chunk.accept(c * PARALLEL_CHUNK, Math.min(length, (c + 1) * PARALLEL_CHUNK)));
+        }
+
+        interface IntBinaryConsumer {
+            void accept(int from, int to);
+        }
+
+        //归还 POOLED 策略下取得的对象，其他策略下为空操作
+        public void release(String shapeType, Shape shape) {
+            resolve(shapeType).release(shape);
+        }
+
+        public Map<String, Product> getProducts() {
+            Map<String, Product> result = new LinkedHashMap<>();
+            for (Product product : products) {
+                if (product != null) {
+                    result.put(product.getName(), product);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 产品的创建策略
+         */
+        public enum CreationPolicy {
+            // 每次都创建新对象
+            NEW,
+            // 所有调用方共享同一个实例，只适用于无状态产品
+            SHARED,
+            // 每个线程一个实例，适用于有状态但不跨线程传递的产品
+            THREAD_LOCAL,
+            // 有界回收池，调用方用完后通过 release 显式归还，池满时多余的对象直接丢弃
+            POOLED
+        }
+
+        /**
+         * 一种已注册的产品，按创建策略提供对象并统计创建和节省的对象数
+         */
+        public static class Product implements Supplier<Shape> {
+            private final String name;
+            private final Supplier<? extends Shape> supplier;
+            private final CreationPolicy policy;
+            private final Shape shared;
+            private final ThreadLocal<Shape> local;
+            private final BlockingQueue<Shape> pool;
+            // 当前在池中的对象，按引用判断，用来拒绝重复归还
+            private final Set<Shape> idle;
+            // supplier 创建的对象的实际类型，第一次创建时记录，归还时据此拒绝其他类型的对象
+            private volatile Class<?> type;
+            private final LongAdder created = new LongAdder();
+            private final LongAdder avoided = new LongAdder();
+
+            Product(String name, Supplier<? extends Shape> supplier, CreationPolicy policy, int poolSize) {
+                this.name = name;
+                this.supplier = supplier;
+                this.policy = policy;
+                this.shared = policy == CreationPolicy.SHARED ? create() : null;
+                this.local = policy == CreationPolicy.THREAD_LOCAL ? new ThreadLocal<>() : null;
+                this.pool = policy == CreationPolicy.POOLED ? new ArrayBlockingQueue<>(poolSize) : null;
+                this.idle = policy == CreationPolicy.POOLED ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+            }
+
+            private Shape create() {
+                created.increment();
+                Shape shape = supplier.get();
+                if (type == null) {
+                    type = shape.getClass();
+                }
+                return shape;
+            }
+
+            @Override
+            public Shape get() {
+                switch (policy) {
+                    case SHARED:
+                        avoided.increment();
+                        return shared;
+                    case THREAD_LOCAL:
+                        Shape shape = local.get();
+                        if (shape == null) {
+                            shape = create();
+                            local.set(shape);
+                        } else {
+                            avoided.increment();
+                        }
+                        return shape;
+                    case POOLED:
+                        Shape pooled = pool.poll();
+                        if (pooled == null) {
+                            return create();
+                        }
+                        synchronized (idle) {
+                            idle.remove(pooled);
+                        }
+                        avoided.increment();
+                        return pooled;
+                    default:
+                        return create();
+                }
+            }
+
+            /**
+             * 归还 POOLED 策略下取得的对象，其他策略下为空操作
+             * <p>
+             * 归还的对象必须是这个产品创建的类型，同一个对象在被再次取出之前不能归还两次，否则两个调用方会拿到同一个对象
+             */
+            public void release(Shape shape) {
+                if (pool == null || shape == null) {
+                    return;
+                }
+                if (shape.getClass() != type) {
+                    throw new IllegalArgumentException("Cannot release " + shape.getClass().getName() + " to " + name);
+                }
+                synchronized (idle) {
+                    if (!idle.add(shape)) {
+                        throw new IllegalStateException("Shape already released to " + name);
+                    }
+                }
+                if (!pool.offer(shape)) {
+                    // 池已满，丢弃这个对象
+                    synchronized (idle) {
+                        idle.remove(shape);
+                    }
+                }
+            }
+
+            public String getName() {
+                return name;
+            }
+
+            public CreationPolicy getPolicy() {
+                return policy;
+            }
+
+            public long getCreated() {
+                return created.sum();
+            }
+
+            //未分配新对象就完成的 get 调用次数
+            public long getAvoided() {
+                return avoided.sum();
+            }
+
+            @Override
+            public String toString() {
+                return name + "[" + policy + ", created=" + getCreated() + ", avoided=" + getAvoided() + "]";
+            }
+        }
+
+        public static class Builder {
+            private final Map<String, Product> registrations = new LinkedHashMap<>();
+
+            public Builder register(String shapeType, Supplier<? extends Shape> supplier) {
+                return register(shapeType, supplier, CreationPolicy.NEW);
+            }
+
+            public Builder register(String shapeType, Supplier<? extends Shape> supplier, CreationPolicy policy) {
+                return register(shapeType, supplier, policy, DEFAULT_POOL_SIZE);
+            }
+
+            public Builder register(String shapeType, Supplier<? extends Shape> supplier,
+                                    CreationPolicy policy, int poolSize) {
+                Objects.requireNonNull(supplier, "supplier");
+                Objects.requireNonNull(policy, "policy");
+                char[] folded = shapeType.toCharArray();
+                for (int i = 0; i < folded.length; i++) {
+                    folded[i] = fold(folded[i]);
+                }
+                String name = new String(folded);
+                if (registrations.putIfAbsent(name, new Product(name, supplier, policy, poolSize)) != null) {
+                    throw new IllegalArgumentException("Shape type already registered: " + shapeType);
+                }
+                return this;
+            }
+
+            public ShapeFactory build() {
+                return new ShapeFactory(this);
+            }
+        }
+    }
+
+}
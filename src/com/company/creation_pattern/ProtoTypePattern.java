@@ -1,6 +1,40 @@
 package com.company.creation_pattern;
 
-import java.util.Hashtable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 
 /**
  * 原型模式
@@ -62,9 +96,21 @@ public class ProtoTypePattern {
 
         Shape clonedShape3 = ShapeCache.getShape("3");
         System.out.println("Shape : " + clonedShape3.getType());
+
+        System.out.println(ShapeCache.getRegistry());
+
+        Shape deepCopy = clonedShape.deepClone();
+        System.out.println("Deep copy : " + deepCopy.getType() + " " + deepCopy.getId());
+
+        Shape cowShape = ShapeCache.getShapeCopyOnWrite("1");
+        System.out.println("Copy-on-write : " + cowShape.getType() + " " + cowShape.getId());
+        cowShape.setId("4");
+        System.out.println("After write : " + cowShape.getId() + ", prototype : " + ShapeCache.getShape("1").getId());
     }
 
-    public abstract static class Shape implements Cloneable {
+    public abstract static class Shape implements Cloneable, Serializable {
+        private static final long serialVersionUID = 1L;
+
 
         private String id;
         protected String type;
@@ -92,9 +138,16 @@ public class ProtoTypePattern {
             }
             return clone;
         }
+
+        // 深拷贝，引用的对象图（包括共享引用和循环引用）也一并复制
+        public Shape deepClone() {
+            return DeepCopier.copy(this);
+        }
     }
 
     public static class Rectangle extends Shape {
+        private static final long serialVersionUID = 1L;
+
 
         public Rectangle() {
             type = "Rectangle";
@@ -107,6 +160,8 @@ public class ProtoTypePattern {
     }
 
     public static class Square extends Shape {
+        private static final long serialVersionUID = 1L;
+
 
         public Square() {
             type = "Square";
@@ -119,6 +174,8 @@ public class ProtoTypePattern {
     }
 
     public static class Circle extends Shape {
+        private static final long serialVersionUID = 1L;
+
 
         public Circle() {
             type = "Circle";
@@ -131,31 +188,765 @@ public class ProtoTypePattern {
     }
 
 
+    /**
+     * 写时复制的形状
+     * <p>
+     * 大部分调用方拿到克隆后只调用 getType()、draw() 读取状态，完整复制原型是浪费。
+     * CopyOnWriteShape 只持有原型的引用，读操作直接委托给原型；
+     * 第一次调用 setId 等写操作时才深拷贝原型，之后所有操作都作用在副本上。
+     * 复制使用双重检查，多个线程同时第一次写入时只会复制一次。
+     * <p>
+     * 注意：原型在被共享期间不能被修改；getClass() 返回的是 CopyOnWriteShape 而不是原型的具体类型。
+     */
+    public static class CopyOnWriteShape extends Shape {
+        private static final long serialVersionUID = 1L;
+
+        private final Shape prototype;
+        private volatile Shape copy;
+
+        public CopyOnWriteShape(Shape prototype) {
+            this.prototype = prototype;
+            this.type = prototype.getType();
+        }
+
+        private Shape current() {
+            Shape c = copy;
+            return c != null ? c : prototype;
+        }
+
+        private Shape writable() {
+            Shape c = copy;
+            if (c == null) {
+                synchronized (this) {
+                    c = copy;
+                    if (c == null) {
+                        c = prototype.deepClone();
+                        copy = c;
+                    }
+                }
+            }
+            return c;
+        }
+
+        public boolean isCopied() {
+            return copy != null;
+        }
+
+        @Override
+        void draw() {
+            current().draw();
+        }
+
+        @Override
+        public String getType() {
+            return current().getType();
+        }
+
+        @Override
+        public String getId() {
+            return current().getId();
+        }
+
+        @Override
+        public void setId(String id) {
+            writable().setId(id);
+        }
+
+        // 还没写入过时，克隆与原型共享，直到被写入；已经有了私有副本时，副本之后还会被修改，
+        // 所以克隆基于副本的一份深拷贝，两者互不影响
+        @Override
+        public Object clone() {
+            Shape c = copy;
+            return new CopyOnWriteShape(c == null ? prototype : c.deepClone());
+        }
+
+        @Override
+        public Shape deepClone() {
+            return current().deepClone();
+        }
+    }
+
     public static class ShapeCache {
 
-        private static final Hashtable<String, Shape> shapeMap
-                = new Hashtable<String, Shape>();
+        private static final PrototypeRegistry<Shape> shapeMap
+                = new PrototypeRegistry<>(shape -> (Shape) shape.clone());
 
+        // 通过 openSnapshot 打开的磁盘快照，注册表中没有的原型从这里按需加载
+        private static volatile PrototypeStore store;
+
+        // 注册表中没有的原型从快照中加载，计为注册表的 fallbackHits
         public static Shape getShape(String shapeId) {
-            Shape cachedShape = shapeMap.get(shapeId);
-            return (Shape) cachedShape.clone();
+            return shapeMap.get(shapeId, ShapeCache::fromSnapshot);
+        }
+
+        // 写时复制的克隆：只读的调用方不会触发任何复制
+        public static Shape getShapeCopyOnWrite(String shapeId) {
+            Shape prototype = shapeMap.getPrototype(shapeId, ShapeCache::fromSnapshot);
+            return prototype == null ? null : new CopyOnWriteShape(prototype);
+        }
+
+        private static Shape fromSnapshot(String shapeId) {
+            PrototypeStore current = store;
+            return current == null ? null : current.get(shapeId);
+        }
+
+        // 把当前注册表中的原型写成磁盘快照，下次启动时用 openSnapshot 打开，代替 loadCache
+        public static void saveSnapshot(Path path) throws IOException {
+            PrototypeStore.write(path, shapeMap.getPrototypes());
+        }
+
+        public static void openSnapshot(Path path) throws IOException {
+            store = PrototypeStore.open(path, ShapeCache::newShape);
+        }
+
+        private static Shape newShape(String type) {
+            switch (type) {
+                case "Circle":
+                    return new Circle();
+                case "Square":
+                    return new Square();
+                case "Rectangle":
+                    return new Rectangle();
+                default:
+                    throw new IllegalArgumentException("Unknown shape type: " + type);
+            }
+        }
+
+        public static PrototypeRegistry<Shape> getRegistry() {
+            return shapeMap;
         }
 
         // 对每种形状都运行数据库查询，并创建该形状
         // shapeMap.put(shapeKey, shape);
         // 例如，我们要添加三种形状
         public static void loadCache() {
+            Map<String, Shape> shapes = new LinkedHashMap<>();
+
             Circle circle = new Circle();
             circle.setId("1");
-            shapeMap.put(circle.getId(), circle);
+            shapes.put(circle.getId(), circle);
 
             Square square = new Square();
             square.setId("2");
-            shapeMap.put(square.getId(), square);
+            shapes.put(square.getId(), square);
 
             Rectangle rectangle = new Rectangle();
             rectangle.setId("3");
-            shapeMap.put(rectangle.getId(), rectangle);
+            shapes.put(rectangle.getId(), rectangle);
+
+            shapeMap.putAll(shapes);
+        }
+    }
+
+    /**
+     * 内存映射的原型快照
+     * <p>
+     * loadCache 需要对每个形状做一次数据库查询，进程重启很慢。PrototypeStore 把原型写成一个文件，
+     * 下次启动时用 FileChannel.map 映射进来，打开文件只读取文件头，原型在第一次 getShape 时才创建。
+     * <p>
+     * 文件格式（大端）：
+     * 文件头：MAGIC(int) VERSION(int) 原型数量(int) 槽位数(int)
+     * 哈希表：每个槽位 [id 的 hashCode(int)][记录偏移(int)]，开放寻址线性探测，偏移为 0 表示空槽位
+     * 记录：[id 字节数(short)][id UTF-8][type 字节数(short)][type UTF-8]
+     * 查找时先比较 hashCode，只有哈希相同才解码 id 比较，不需要把整个文件读进堆中。
+     * <p>
+     * 记录中只保存一次 id，既是查找的键也是恢复后原型的 id，因此 write 要求每个原型的 getId() 与它的键相同。
+     * open 时检查文件头中的槽位数与文件大小是否一致，截断的文件直接抛出 IOException；
+     * 记录区损坏时在读取该记录时抛出 IllegalStateException。
+     */
+    public static class PrototypeStore {
+        private static final int MAGIC = 0x50525354;
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+        private static final int SLOT_BYTES = 8;
+
+        private final MappedByteBuffer buffer;
+        private final int count;
+        private final int mask;
+        private final Function<String, ? extends Shape> factory;
+        private final ConcurrentMap<String, Shape> materialized = new ConcurrentHashMap<>();
+
+        private PrototypeStore(MappedByteBuffer buffer, Function<String, ? extends Shape> factory) throws IOException {
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a prototype snapshot");
+            }
+            int count = buffer.getInt(8);
+            int slots = buffer.getInt(12);
+            // 截断或损坏的文件在打开时就报错，而不是在之后查找时越界读取
+            if (slots <= 0 || (slots & (slots - 1)) != 0 || count < 0 || count >= slots
+                    || HEADER_BYTES + (long) slots * SLOT_BYTES > buffer.limit()) {
+                throw new IOException("Corrupt prototype snapshot: count=" + count + ", slots=" + slots
+                        + ", file size=" + buffer.limit());
+            }
+            this.buffer = buffer;
+            this.count = count;
+            this.mask = slots - 1;
+            this.factory = factory;
+        }
+
+        public static PrototypeStore open(Path path, Function<String, ? extends Shape> factory) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new PrototypeStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), factory);
+            }
+        }
+
+        public static void write(Path path, Map<String, ? extends Shape> prototypes) throws IOException {
+            int slots = Integer.highestOneBit(Math.max(1, prototypes.size() * 2 - 1)) << 1;
+            Map<String, byte[]> types = new HashMap<>();
+            List<byte[]> ids = new ArrayList<>(prototypes.size());
+            List<byte[]> typeBytes = new ArrayList<>(prototypes.size());
+            long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+            for (Map.Entry<String, ? extends Shape> e : prototypes.entrySet()) {
+                // 文件中只保存键，恢复时用键作为原型的 id，所以两者必须一致
+                if (!e.getKey().equals(e.getValue().getId())) {
+                    throw new IllegalArgumentException("Prototype key " + e.getKey() + " does not match its id "
+                            + e.getValue().getId());
+                }
+                byte[] id = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] type = types.computeIfAbsent(e.getValue().getType(), t -> t.getBytes(StandardCharsets.UTF_8));
+                if (id.length > Short.MAX_VALUE || type.length > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Prototype id or type too long: " + e.getKey());
+                }
+                ids.add(id);
+                typeBytes.add(type);
+                size += 4 + id.length + type.length;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Snapshot larger than 2 GB: " + size + " bytes");
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.putInt(MAGIC).putInt(VERSION).putInt(prototypes.size()).putInt(slots);
+                int offset = HEADER_BYTES + slots * SLOT_BYTES;
+                int i = 0;
+                for (String key : prototypes.keySet()) {
+                    int hash = key.hashCode();
+                    int slot = mix(hash) & (slots - 1);
+                    while (out.getInt(HEADER_BYTES + slot * SLOT_BYTES + 4) != 0) {
+                        slot = (slot + 1) & (slots - 1);
+                    }
+                    out.putInt(HEADER_BYTES + slot * SLOT_BYTES, hash);
+                    out.putInt(HEADER_BYTES + slot * SLOT_BYTES + 4, offset);
+
+                    out.position(offset);
+                    out.putShort((short) ids.get(i).length).put(ids.get(i));
+                    out.putShort((short) typeBytes.get(i).length).put(typeBytes.get(i));
+                    offset = out.position();
+                    i++;
+                }
+                out.force();
+            }
+        }
+
+        private static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int getMaterializedCount() {
+            return materialized.size();
+        }
+
+        // 返回原型本身，第一次访问时才从映射的文件中创建，调用方需要自行克隆
+        public Shape get(String id) {
+            Shape prototype = materialized.get(id);
+            if (prototype != null) {
+                return prototype;
+            }
+            int offset = find(id);
+            if (offset == 0) {
+                return null;
+            }
+            return materialized.computeIfAbsent(id, key -> materialize(key, offset));
+        }
+
+        private int find(String id) {
+            int hash = id.hashCode();
+            int slot = mix(hash) & mask;
+            while (true) {
+                int position = HEADER_BYTES + slot * SLOT_BYTES;
+                int offset = buffer.getInt(position + 4);
+                if (offset == 0) {
+                    return 0;
+                }
+                if (buffer.getInt(position) == hash && id.equals(readString(offset))) {
+                    return offset;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private Shape materialize(String id, int offset) {
+            int typeOffset = offset + 2 + buffer.getShort(offset);
+            Shape shape = factory.apply(readString(typeOffset));
+            shape.setId(id);
+            return shape;
+        }
+
+        private String readString(int offset) {
+            if (offset < HEADER_BYTES || offset > buffer.limit() - 2
+                    || buffer.getShort(offset) < 0 || buffer.getShort(offset) > buffer.limit() - 2 - offset) {
+                throw new IllegalStateException("Corrupt prototype snapshot: record at " + offset
+                        + " beyond end of file " + buffer.limit());
+            }
+            byte[] bytes = new byte[buffer.getShort(offset)];
+            buffer.get(offset + 2, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 并发原型注册表
+     * <p>
+     * 原型集合保存在不可变的快照中，通过 AtomicReference 发布：
+     * 1、读取（get）只读一次快照再克隆，不加锁，多线程克隆时没有全局锁竞争。
+     * 2、增加、替换、删除原型都是复制出新快照后 CAS 发布，putAll 一次替换多个原型，读者不会看到更新了一半的集合。
+     * 3、可以设置容量上限，超出时按 LRU（最久未访问）或 LFU（访问次数最少）淘汰原型，淘汰只在写入时进行。
+     * 本次写入的原型最后才淘汰；一次写入的原型本身就超过容量时，按写入顺序只保留最后 maxSize 个。
+     * 4、注册表中没有的原型可以通过 get(id, fallback) 从其他来源（例如磁盘快照）取得，这类访问单独计为 fallbackHits，
+     * 不算作命中或未命中。统计命中、回退命中、未命中、淘汰次数和克隆耗时。
+     * <p>
+     * 为了避免读取时写共享计数器，访问时间按 ACCESS_GRANULARITY_NANOS 粗粒度更新，LRU 是近似的。
+     */
+    public static class PrototypeRegistry<T> {
+        private static final long ACCESS_GRANULARITY_NANOS = 1_000_000L;
+
+        public enum Eviction {
+            LRU, LFU
+        }
+
+        private final AtomicReference<Map<String, Entry<T>>> snapshot = new AtomicReference<>(Collections.emptyMap());
+        private final UnaryOperator<T> copier;
+        private final int maxSize;
+        private final Eviction eviction;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder fallbackHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder cloneNanos = new LongAdder();
+
+        public PrototypeRegistry(UnaryOperator<T> copier) {
+            this(copier, Integer.MAX_VALUE, Eviction.LRU);
+        }
+
+        public PrototypeRegistry(UnaryOperator<T> copier, int maxSize, Eviction eviction) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+            }
+            this.copier = Objects.requireNonNull(copier, "copier");
+            this.maxSize = maxSize;
+            this.eviction = Objects.requireNonNull(eviction, "eviction");
+        }
+
+        // 返回原型的克隆，原型不存在时返回 null
+        public T get(String id) {
+            return get(id, null);
+        }
+
+        // 返回原型的克隆，注册表中没有时从 fallback 取得原型再克隆，都没有时返回 null
+        public T get(String id, Function<String, ? extends T> fallback) {
+            T prototype = getPrototype(id, fallback);
+            if (prototype == null) {
+                return null;
+            }
+            long start = System.nanoTime();
+            T copy = copier.apply(prototype);
+            cloneNanos.add(System.nanoTime() - start);
+            return copy;
+        }
+
+        // 返回原型本身而不克隆，调用方不能修改它，原型不存在时返回 null
+        public T getPrototype(String id) {
+            return getPrototype(id, null);
+        }
+
+        public T getPrototype(String id, Function<String, ? extends T> fallback) {
+            Entry<T> entry = snapshot.get().get(id);
+            if (entry != null) {
+                hits.increment();
+                entry.touch();
+                return entry.prototype;
+            }
+            T prototype = fallback == null ? null : fallback.apply(id);
+            if (prototype == null) {
+                misses.increment();
+            } else {
+                fallbackHits.increment();
+            }
+            return prototype;
+        }
+
+        // 当前所有原型的只读视图，不会被之后的写入影响
+        public Map<String, T> getPrototypes() {
+            Map<String, T> prototypes = new LinkedHashMap<>();
+            snapshot.get().forEach((id, entry) -> prototypes.put(id, entry.prototype));
+            return Collections.unmodifiableMap(prototypes);
+        }
+
+        public boolean contains(String id) {
+            return snapshot.get().containsKey(id);
+        }
+
+        public void put(String id, T prototype) {
+            putAll(Collections.singletonMap(id, prototype));
+        }
+
+        // 原子地增加或替换一组原型
+        public void putAll(Map<String, ? extends T> prototypes) {
+            Map<String, Entry<T>> current;
+            Map<String, Entry<T>> next;
+            int evicted;
+            do {
+                current = snapshot.get();
+                Map<String, Entry<T>> updated = new HashMap<>(current);
+                for (Map.Entry<String, ? extends T> e : prototypes.entrySet()) {
+                    updated.put(e.getKey(), new Entry<>(Objects.requireNonNull(e.getValue(), "prototype")));
+                }
+                evicted = updated.size();
+                next = evict(updated, prototypes.keySet());
+                evicted -= next.size();
+            } while (!snapshot.compareAndSet(current, next));
+            evictions.add(evicted);
+        }
+
+        public boolean remove(String id) {
+            Map<String, Entry<T>> current;
+            Map<String, Entry<T>> next;
+            do {
+                current = snapshot.get();
+                if (!current.containsKey(id)) {
+                    return false;
+                }
+                next = new HashMap<>(current);
+                next.remove(id);
+            } while (!snapshot.compareAndSet(current, Collections.unmodifiableMap(next)));
+            return true;
+        }
+
+        // 超出容量时淘汰，先按淘汰策略淘汰之前的原型，仍然超出时再按写入顺序淘汰本次写入的原型
+        private Map<String, Entry<T>> evict(Map<String, Entry<T>> next, Set<String> written) {
+            int excess = next.size() - maxSize;
+            if (excess > 0) {
+                Comparator<Map.Entry<String, Entry<T>>> order = eviction == Eviction.LRU
+                        ? Comparator.comparingLong(e -> e.getValue().lastAccess)
+                        : Comparator.comparingLong(e -> e.getValue().accesses.sum());
+                List<String> victims = next.entrySet().stream()
+                        .filter(e -> !written.contains(e.getKey()))
+                        .sorted(order)
+                        .limit(excess)
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toCollection(ArrayList::new));
+                for (Iterator<String> it = written.iterator(); victims.size() < excess && it.hasNext(); ) {
+                    victims.add(it.next());
+                }
+                victims.forEach(next::remove);
+            }
+            return Collections.unmodifiableMap(next);
+        }
+
+        public int size() {
+            return snapshot.get().size();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getFallbackHits() {
+            return fallbackHits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public long getCloneNanos() {
+            return cloneNanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            long h = getHits();
+            long fallback = getFallbackHits();
+            return "PrototypeRegistry[size=" + size() + ", hits=" + h + ", fallbackHits=" + fallback
+                    + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                    + ", avgCloneNanos=" + (h + fallback == 0 ? 0 : getCloneNanos() / (h + fallback)) + "]";
+        }
+
+        private static final class Entry<T> {
+            private final T prototype;
+            private final LongAdder accesses = new LongAdder();
+            private volatile long lastAccess = System.nanoTime();
+
+            Entry(T prototype) {
+                this.prototype = prototype;
+            }
+
+            void touch() {
+                accesses.increment();
+                long now = System.nanoTime();
+                if (now - lastAccess > ACCESS_GRANULARITY_NANOS) {
+                    lastAccess = now;
+                }
+            }
+        }
+    }
+
+    /**
+     * 深拷贝引擎
+     * <p>
+     * 序列化方式的深拷贝要经过字节流，反射方式每次都要查找字段、装箱拆箱，都很慢。
+     * DeepCopier 为每个类只生成一次拷贝器（ClassValue 缓存）：
+     * 1、基本类型字段用 MethodHandle 把 getter 和 setter 组合成一个 (src, dst) 句柄，没有装箱。
+     * 2、基本类型数组整体 clone，对象数组逐个元素递归复制。
+     * 3、复制过程中用 IdentityHashMap 记录已复制的对象，共享引用复制后仍然共享，循环引用不会死循环。
+     * 4、String、包装类型、枚举、Class 等不可变对象直接共享。JDK 中公开的可变 Collection/Map 通过公开构造方法加公开 API 复制，
+     *    有序集合保留原来的比较器；不可变、包装或定长的 JDK 集合以及其他 JDK 内部类型会抛出 IllegalArgumentException。
+     * 被复制的类需要有无参构造方法（可以是私有的）。
+     */
+    public static class DeepCopier {
+        private static final ClassValue<ClassCopier> COPIERS = new ClassValue<ClassCopier>() {
+            @Override
+            protected ClassCopier computeValue(Class<?> type) {
+                return new ClassCopier(type);
+            }
+        };
+
+        private static final Set<Class<?>> IMMUTABLE = Set.of(String.class, Boolean.class, Byte.class,
+                Character.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+                BigInteger.class, BigDecimal.class, Class.class);
+
+        private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<>();
+
+        private DeepCopier() {
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <T> T copy(T source) {
+            return (T) new DeepCopier().copyObject(source);
+        }
+
+        Object copyObject(Object source) {
+            if (source == null || isImmutable(source.getClass())) {
+                return source;
+            }
+            Object copy = copies.get(source);
+            if (copy != null) {
+                return copy;
+            }
+            Class<?> type = source.getClass();
+            if (type.isArray()) {
+                return copyArray(source, type);
+            }
+            if (isJdkContainer(type)) {
+                return source instanceof Map ? copyMap((Map<?, ?>) source) : copyCollection((Collection<?>) source);
+            }
+            return COPIERS.get(type).copy(source, this);
+        }
+
+        void register(Object source, Object copy) {
+            copies.put(source, copy);
+        }
+
+        private static boolean isJdkContainer(Class<?> type) {
+            return (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))
+                    && type.getName().startsWith("java.");
+        }
+
+        private static boolean isImmutable(Class<?> type) {
+            return IMMUTABLE.contains(type) || type.isEnum() || Enum.class.isAssignableFrom(type);
+        }
+
+        private Object copyArray(Object source, Class<?> type) {
+            if (type.getComponentType().isPrimitive()) {
+                Object copy = primitiveArrayClone(source);
+                register(source, copy);
+                return copy;
+            }
+            Object[] array = (Object[]) source;
+            Object[] copy = array.clone();
+            register(source, copy);
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = copyObject(array[i]);
+            }
+            return copy;
+        }
+
+        private static Object primitiveArrayClone(Object array) {
+            if (array instanceof int[]) {
+                return ((int[]) array).clone();
+            } else if (array instanceof long[]) {
+                return ((long[]) array).clone();
+            } else if (array instanceof double[]) {
+                return ((double[]) array).clone();
+            } else if (array instanceof byte[]) {
+                return ((byte[]) array).clone();
+            } else if (array instanceof char[]) {
+                return ((char[]) array).clone();
+            } else if (array instanceof float[]) {
+                return ((float[]) array).clone();
+            } else if (array instanceof short[]) {
+                return ((short[]) array).clone();
+            }
+            return ((boolean[]) array).clone();
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object copyCollection(Collection<?> source) {
+            Collection<Object> copy = (Collection<Object>) COPIERS.get(source.getClass()).newInstance(source);
+            register(source, copy);
+            for (Object element : source) {
+                copy.add(copyObject(element));
+            }
+            return copy;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object copyMap(Map<?, ?> source) {
+            Map<Object, Object> copy = (Map<Object, Object>) COPIERS.get(source.getClass()).newInstance(source);
+            register(source, copy);
+            for (Map.Entry<?, ?> e : source.entrySet()) {
+                copy.put(copyObject(e.getKey()), copyObject(e.getValue()));
+            }
+            return copy;
+        }
+
+        /**
+         * 某个类的拷贝器，构造时解析一次无参构造方法和全部实例字段
+         */
+        private static final class ClassCopier {
+            private static final MethodType COPY_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+            private final Class<?> type;
+            // (Object source) -> Object，普通类忽略参数；有序的 JDK 集合从 source 取出比较器传给新实例
+            private final MethodHandle constructor;
+            // (Object src, Object dst) -> void，直接复制基本类型和不可变字段
+            private final MethodHandle[] valueFields;
+            // (Object) -> Object 和 (Object, Object) -> void，引用字段需要递归复制
+            private final MethodHandle[] referenceGetters;
+            private final MethodHandle[] referenceSetters;
+
+            ClassCopier(Class<?> type) {
+                this.type = type;
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                if (isJdkContainer(type)) {
+                    constructor = jdkContainerConstructor(lookup, type);
+                    valueFields = referenceGetters = referenceSetters = new MethodHandle[0];
+                    return;
+                }
+                try {
+                    Constructor<?> ctor = type.getDeclaredConstructor();
+                    ctor.setAccessible(true);
+                    constructor = MethodHandles.dropArguments(lookup.unreflectConstructor(ctor)
+                            .asType(MethodType.methodType(Object.class)), 0, Object.class);
+                } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                    throw new IllegalArgumentException("Cannot instantiate " + type.getName(), e);
+                }
+
+                List<MethodHandle> values = new ArrayList<>();
+                List<MethodHandle> getters = new ArrayList<>();
+                List<MethodHandle> setters = new ArrayList<>();
+                for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) {
+                            continue;
+                        }
+                        try {
+                            field.setAccessible(true);
+                            MethodHandle getter = lookup.unreflectGetter(field);
+                            MethodHandle setter = lookup.unreflectSetter(field);
+                            Class<?> fieldType = field.getType();
+                            if (fieldType.isPrimitive() || isImmutable(fieldType)) {
+                                // setter(dst, getter(src))，参数顺序调整为 (src, dst)
+                                MethodHandle copy = MethodHandles.filterArguments(setter, 1, getter);
+                                copy = MethodHandles.permuteArguments(copy,
+                                        MethodType.methodType(void.class, c, c), 1, 0);
+                                values.add(copy.asType(COPY_TYPE));
+                            } else {
+                                getters.add(getter.asType(MethodType.methodType(Object.class, Object.class)));
+                                setters.add(setter.asType(COPY_TYPE));
+                            }
+                        } catch (IllegalAccessException | RuntimeException e) {
+                            throw new IllegalArgumentException("Cannot copy field " + field, e);
+                        }
+                    }
+                }
+                valueFields = values.toArray(new MethodHandle[0]);
+                referenceGetters = getters.toArray(new MethodHandle[0]);
+                referenceSetters = setters.toArray(new MethodHandle[0]);
+            }
+
+            /**
+             * JDK 中的 Collection/Map 只支持公开的可变实现类（ArrayList、HashMap、TreeMap 等），通过公开构造方法创建：
+             * 有 comparator() 方法的有序集合（TreeMap、TreeSet、PriorityQueue 等）必须有以比较器为参数的构造方法，
+             * 复制时沿用原集合的比较器（比较器被视为无状态，直接共享）；其他集合使用无参构造方法。
+             * List.of、Collections.unmodifiable*、Arrays.asList 等不可变、包装或定长的集合无法这样重建，直接报错，
+             * 而不是悄悄复制成另一种语义的集合。
+             */
+            private static MethodHandle jdkContainerConstructor(MethodHandles.Lookup lookup, Class<?> type) {
+                if (!Modifier.isPublic(type.getModifiers()) || Modifier.isAbstract(type.getModifiers())) {
+                    throw new IllegalArgumentException("Cannot deep-copy " + type.getName()
+                            + ": immutable, wrapper and fixed-size JDK collections (List.of, Collections.unmodifiable*, "
+                            + "Arrays.asList, ...) are not supported, copy them into a mutable collection first");
+                }
+                MethodType factoryType = MethodType.methodType(Object.class, Object.class);
+                try {
+                    Method comparator;
+                    try {
+                        comparator = type.getMethod("comparator");
+                    } catch (NoSuchMethodException e) {
+                        comparator = null;
+                    }
+                    if (comparator != null && comparator.getParameterCount() == 0) {
+                        MethodHandle ctor = lookup.findConstructor(type,
+                                MethodType.methodType(void.class, Comparator.class));
+                        return MethodHandles.filterArguments(ctor, 0, lookup.unreflect(comparator)
+                                .asType(MethodType.methodType(Comparator.class, Object.class))).asType(factoryType);
+                    }
+                    MethodHandle ctor = lookup.findConstructor(type, MethodType.methodType(void.class));
+                    return MethodHandles.dropArguments(ctor, 0, Object.class).asType(factoryType);
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    throw new IllegalArgumentException("Cannot deep-copy " + type.getName()
+                            + ": no public no-arg or comparator constructor", e);
+                }
+            }
+
+            Object newInstance(Object source) {
+                try {
+                    return (Object) constructor.invokeExact(source);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Cannot instantiate " + type.getName(), e);
+                }
+            }
+
+            Object copy(Object source, DeepCopier copier) {
+                Object copy = newInstance(source);
+                copier.register(source, copy);
+                try {
+                    for (MethodHandle field : valueFields) {
+                        field.invokeExact(source, copy);
+                    }
+                    for (int i = 0; i < referenceGetters.length; i++) {
+                        Object value = (Object) referenceGetters[i].invokeExact(source);
+                        referenceSetters[i].invokeExact(copy, copier.copyObject(value));
+                    }
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Cannot copy " + type.getName(), e);
+                }
+                return copy;
+            }
         }
     }
 }
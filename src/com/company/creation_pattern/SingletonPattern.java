@@ -1,5 +1,21 @@
 package com.company.creation_pattern;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * 单例模式（Singleton Pattern）是 Java 中最简单的设计模式之一。这种类型的设计模式属于创建型模式，它提供了一种创建对象的最佳方式。
@@ -40,12 +56,29 @@ package com.company.creation_pattern;
  * 建议使用饿汉方式。只有在要明确实现 lazy loading 效果时，才会使用第 5 种登记方式。
  * 如果涉及到反序列化创建对象时，可以尝试使用枚举方式。
  * 如果有其他特殊的需求，可以考虑使用双检锁方式。
+ * 需要大量延迟初始化的服务单例时，使用 SingletonRegistry 统一登记，不必逐个手写双检锁或静态内部类。
  */
 public class SingletonPattern {
     public static void main(String[] args) {
         String s = LazySingleton.getInstance().getClass().toString();
         String s1 = LazySingleton.getInstance().getClass().toString();
         System.out.println( s.equals(s1));
+
+        SingletonRegistry registry = new SingletonRegistry();
+        registry.register(StringBuilder.class, StringBuilder::new);
+        registry.register("counter", StringBuilder.class, () -> new StringBuilder("counter"));
+        System.out.println(registry.get(StringBuilder.class) == registry.get(StringBuilder.class));
+        System.out.println(registry.get("counter", StringBuilder.class) != registry.get(StringBuilder.class));
+
+        registry.register("config", Object.class, Object::new);
+        registry.register("db", Object.class, Object::new);
+        registry.register("cache", Object.class, Object::new);
+        SingletonWarmup warmup = new SingletonWarmup(registry);
+        warmup.declare("config");
+        warmup.declare("db", "config");
+        warmup.declare("cache", "config");
+        warmup.declare(StringBuilder.class, "db", "cache");
+        System.out.println(warmup.run());
     }
     /**
      * 懒汉式，线程安全
@@ -187,4 +220,292 @@ public class SingletonPattern {
         public void whateverMethod() {
         }
     }
+
+    /**
+     * 单例注册表
+     * 是否 Lazy 初始化：是
+     * <p>
+     * 是否多线程安全：是
+     * <p>
+     * 实现难度：一般
+     * <p>
+     * 描述：用一个通用的注册表代替为每个服务手写的 DCLSingleton / InnerClassSingleton。
+     * 启动时按 key（类或名称）登记创建方法，第一次 get 时才创建实例。
+     * 1、实例发布之后，get 只有一次 ConcurrentHashMap 读取和一次 volatile 读，不加锁。
+     * 2、初始化只锁住对应 key 自己的 Holder，一个构造很慢的单例不会阻塞其他 key。
+     * 3、如果创建方法抛出异常，实例保持未创建状态，下一次 get 会重新尝试创建。
+     * 在循环中反复访问同一个单例时，可以先通过 handle 取得 Supplier，把 key 查找提到循环外。
+     */
+    public static class SingletonRegistry {
+        private final ConcurrentMap<Object, Holder<?>> holders = new ConcurrentHashMap<>();
+
+        public <T> void register(Class<T> type, Supplier<? extends T> factory) {
+            register((Object) type, type, factory);
+        }
+
+        public <T> void register(String name, Class<T> type, Supplier<? extends T> factory) {
+            register((Object) name, type, factory);
+        }
+
+        private <T> void register(Object key, Class<T> type, Supplier<? extends T> factory) {
+            Objects.requireNonNull(factory, "factory");
+            if (holders.putIfAbsent(key, new Holder<>(type, factory)) != null) {
+                throw new IllegalStateException("Singleton already registered: " + key);
+            }
+        }
+
+        public <T> T get(Class<T> type) {
+            return handle(type).get();
+        }
+
+        public <T> T get(String name, Class<T> type) {
+            return handle(name, type).get();
+        }
+
+        public <T> Supplier<T> handle(Class<T> type) {
+            return holder(type, type);
+        }
+
+        public <T> Supplier<T> handle(String name, Class<T> type) {
+            return holder(name, type);
+        }
+
+        public boolean isRegistered(Object key) {
+            return holders.containsKey(key);
+        }
+
+        public boolean isInitialized(Object key) {
+            Holder<?> holder = holders.get(key);
+            return holder != null && holder.instance != null;
+        }
+
+        /**
+         * 按 key 创建（或取得已创建的）实例，供 SingletonWarmup 等不关心具体类型的调用方使用
+         */
+        public Object initialize(Object key) {
+            return holder(key, Object.class).get();
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> Holder<T> holder(Object key, Class<T> type) {
+            Holder<?> holder = holders.get(key);
+            if (holder == null) {
+                throw new NoSuchElementException("Singleton not registered: " + key);
+            }
+            if (!type.isAssignableFrom(holder.type)) {
+                throw new ClassCastException("Singleton " + key + " is a " + holder.type.getName()
+                        + ", not a " + type.getName());
+            }
+            return (Holder<T>) holder;
+        }
+
+        private static final class Holder<T> implements Supplier<T> {
+            private final Class<T> type;
+            private final Supplier<? extends T> factory;
+            private volatile T instance;
+
+            Holder(Class<T> type, Supplier<? extends T> factory) {
+                this.type = type;
+                this.factory = factory;
+            }
+
+            @Override
+            public T get() {
+                T result = instance;
+                if (result != null) {
+                    return result;
+                }
+                synchronized (this) {
+                    result = instance;
+                    if (result == null) {
+                        // 创建方法抛出异常时 instance 仍为 null，下次调用会重试
+                        result = type.cast(Objects.requireNonNull(factory.get(), "factory returned null"));
+                        instance = result;
+                    }
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * 单例并行预热
+     * <p>
+     * 饿汉式在类初始化时串行创建实例，而且发生在第一个碰到这个类的线程上，服务启动时会因此卡顿。
+     * SingletonWarmup 在启动时根据声明的依赖关系，把 SingletonRegistry 中的单例提前创建好：
+     * 1、相互独立的单例在 ForkJoinPool 上并行创建，一个单例只在它依赖的单例都创建完之后才开始。
+     * 2、运行前检查依赖图，存在循环依赖时直接报错并给出循环路径。
+     * 3、返回每个单例的创建耗时报告，总耗时取决于依赖图的关键路径，而不是所有构造耗时之和。
+     */
+    public static class SingletonWarmup {
+        private final SingletonRegistry registry;
+        private final Map<Object, List<Object>> dependencies = new LinkedHashMap<>();
+
+        public SingletonWarmup(SingletonRegistry registry) {
+            this.registry = registry;
+        }
+
+        public SingletonWarmup declare(Object key, Object... dependsOn) {
+            List<Object> list = dependencies.computeIfAbsent(key, k -> new ArrayList<>());
+            for (Object dependency : dependsOn) {
+                list.add(dependency);
+                dependencies.computeIfAbsent(dependency, k -> new ArrayList<>());
+            }
+            return this;
+        }
+
+        public WarmupReport run() {
+            return run(ForkJoinPool.commonPool());
+        }
+
+        public WarmupReport run(Executor executor) {
+            List<Object> order = topologicalOrder();
+            Map<Object, CompletableFuture<Timing>> futures = new HashMap<>();
+            long start = System.nanoTime();
+            for (Object key : order) {
+                List<Object> dependsOn = dependencies.get(key);
+                CompletableFuture<?>[] before = new CompletableFuture<?>[dependsOn.size()];
+                for (int i = 0; i < before.length; i++) {
+                    before[i] = futures.get(dependsOn.get(i));
+                }
+                futures.put(key, CompletableFuture.allOf(before)
+                        .thenApplyAsync(ignored -> initialize(key, start), executor));
+            }
+
+            List<Timing> timings = new ArrayList<>();
+            for (Object key : order) {
+                try {
+                    timings.add(futures.get(key).join());
+                } catch (CompletionException e) {
+                    throw new IllegalStateException("Failed to warm up singleton: " + key, e.getCause());
+                }
+            }
+            return new WarmupReport(timings, System.nanoTime() - start, criticalPath(order, timings));
+        }
+
+        private Timing initialize(Object key, long origin) {
+            long begin = System.nanoTime();
+            registry.initialize(key);
+            long end = System.nanoTime();
+            return new Timing(key, begin - origin, end - begin, Thread.currentThread().getName());
+        }
+
+        // 深度优先遍历，得到依赖在前的顺序，同时检查循环依赖和未登记的单例
+        private List<Object> topologicalOrder() {
+            List<Object> order = new ArrayList<>();
+            Map<Object, Boolean> visited = new HashMap<>();
+            for (Object key : dependencies.keySet()) {
+                visit(key, visited, new ArrayList<>(), order);
+            }
+            return order;
+        }
+
+        private void visit(Object key, Map<Object, Boolean> visited, List<Object> path, List<Object> order) {
+            Boolean done = visited.get(key);
+            if (Boolean.TRUE.equals(done)) {
+                return;
+            }
+            path.add(key);
+            if (Boolean.FALSE.equals(done)) {
+                List<Object> cycle = path.subList(path.indexOf(key), path.size());
+                throw new IllegalStateException("Circular singleton dependency: " + cycle);
+            }
+            if (!registry.isRegistered(key)) {
+                throw new NoSuchElementException("Singleton not registered: " + key);
+            }
+            visited.put(key, Boolean.FALSE);
+            for (Object dependency : dependencies.get(key)) {
+                visit(dependency, visited, path, order);
+            }
+            visited.put(key, Boolean.TRUE);
+            path.remove(path.size() - 1);
+            order.add(key);
+        }
+
+        private long criticalPath(List<Object> order, List<Timing> timings) {
+            Map<Object, Long> finish = new HashMap<>();
+            long longest = 0;
+            for (int i = 0; i < order.size(); i++) {
+                long ready = 0;
+                for (Object dependency : dependencies.get(order.get(i))) {
+                    ready = Math.max(ready, finish.get(dependency));
+                }
+                long end = ready + timings.get(i).getNanos();
+                finish.put(order.get(i), end);
+                longest = Math.max(longest, end);
+            }
+            return longest;
+        }
+    }
+
+    public static class Timing {
+        private final Object key;
+        private final long offsetNanos;
+        private final long nanos;
+        private final String thread;
+
+        Timing(Object key, long offsetNanos, long nanos, String thread) {
+            this.key = key;
+            this.offsetNanos = offsetNanos;
+            this.nanos = nanos;
+            this.thread = thread;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+    }
+
+    public static class WarmupReport {
+        private final List<Timing> timings;
+        private final long totalNanos;
+        private final long criticalPathNanos;
+
+        WarmupReport(List<Timing> timings, long totalNanos, long criticalPathNanos) {
+            timings.sort(Comparator.comparingLong(Timing::getOffsetNanos));
+            this.timings = Collections.unmodifiableList(timings);
+            this.totalNanos = totalNanos;
+            this.criticalPathNanos = criticalPathNanos;
+        }
+
+        public List<Timing> getTimings() {
+            return timings;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getCriticalPathNanos() {
+            return criticalPathNanos;
+        }
+
+        public long getSumNanos() {
+            return timings.stream().mapToLong(Timing::getNanos).sum();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Warm-up: total %.3f ms, critical path %.3f ms, sum %.3f ms%n",
+                    totalNanos / 1e6, criticalPathNanos / 1e6, getSumNanos() / 1e6));
+            for (Timing timing : timings) {
+                sb.append(String.format("  %-40s start +%9.3f ms  took %9.3f ms  on %s%n",
+                        timing.key, timing.offsetNanos / 1e6, timing.nanos / 1e6, timing.thread));
+            }
+            return sb.toString();
+        }
+    }
 }
@@ -1,5 +1,10 @@
 package com.company.structured_pattern;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * 装饰者模式
  * 装饰器模式（Decorator Pattern）允许向一个现有的对象添加新的功能，同时又不改变其结构。
@@ -33,6 +38,8 @@ package com.company.structured_pattern;
  * RedShapeDecorator 是实现了 ShapeDecorator 的实体类。
  *
  * DecoratorPatternDemo 类使用 RedShapeDecorator 来装饰 Shape 对象。
+ *
+ * 装饰层数很多时，可以用 FusedShape 把装饰链展平成一个循环，调用深度不再随层数增长。
  */
 public class DecoratorPattern {
 
@@ -51,6 +58,11 @@ public class DecoratorPattern {
 
         System.out.println("\nRectangle of red border");
         redRectangle.draw();
+
+        //多层装饰展平后在一个循环里执行，输出与嵌套调用相同
+        Shape fused = FusedShape.of(new RedShapeDecorator(new RedShapeDecorator(new Circle())));
+        System.out.println("\nFused circle of two red borders");
+        fused.draw();
     }
     public interface Shape {
         void draw();
@@ -72,6 +84,12 @@ public class DecoratorPattern {
         }
     }
 
+    /**
+     * 抽象装饰类
+     * <p>
+     * 装饰逻辑写在 before、after 两个钩子中，draw 依次调用 before、被装饰对象的 draw、after。
+     * 只通过钩子扩展、没有重写 draw 的装饰类可以被 FusedShape 展平。
+     */
     public abstract static class ShapeDecorator implements Shape {
         protected Shape decoratedShape;
 
@@ -80,7 +98,15 @@ public class DecoratorPattern {
         }
 
         public void draw(){
+            before();
             decoratedShape.draw();
+            after();
+        }
+
+        protected void before() {
+        }
+
+        protected void after() {
         }
     }
 
@@ -91,13 +117,119 @@ public class DecoratorPattern {
         }
 
         @Override
-        public void draw() {
-            decoratedShape.draw();
-            setRedBorder(decoratedShape);
+        protected void after() {
+            setRedBorder();
         }
 
-        private void setRedBorder(Shape decoratedShape){
+        private void setRedBorder(){
             System.out.println("Border Color: Red");
         }
     }
+
+    /**
+     * 展平的装饰链
+     * <p>
+     * 多层装饰嵌套时，每一层 draw 都是一次虚方法调用，调用深度随装饰层数增长。
+     * FusedShape.of 从最外层开始沿 decoratedShape 向内展开，把各层的 before 按从外到内、after 按从内到外的顺序
+     * 分别放进两个数组，draw 时在一个循环里依次执行，中间只调用一次最内层对象的 draw，输出顺序与嵌套调用完全相同。
+     * <p>
+     * 1、只展开没有重写 draw 的 ShapeDecorator，遇到重写了 draw 的装饰类或其他 Shape 时，把它当作最内层对象整体调用。
+     * 2、没有重写 before 或 after 的层不会放进对应的数组，空钩子不产生调用。
+     * 3、展平时对装饰链做快照，之后再修改某一层的 decoratedShape 不会影响已经展平的结果。
+     */
+    public static final class FusedShape implements Shape {
+        private static final int FUSIBLE = 1;
+        private static final int HAS_BEFORE = 2;
+        private static final int HAS_AFTER = 4;
+
+        // 每个装饰类是否重写了 draw、before、after，只需要反射检查一次
+        private static final ClassValue<Integer> HOOKS = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                int hooks = 0;
+                if (declaringClass(type, "draw") == ShapeDecorator.class) {
+                    hooks |= FUSIBLE;
+                }
+                if (declaringClass(type, "before") != ShapeDecorator.class) {
+                    hooks |= HAS_BEFORE;
+                }
+                if (declaringClass(type, "after") != ShapeDecorator.class) {
+                    hooks |= HAS_AFTER;
+                }
+                return hooks;
+            }
+        };
+
+        private final ShapeDecorator[] before;
+        private final ShapeDecorator[] after;
+        private final Shape core;
+
+        private FusedShape(ShapeDecorator[] before, ShapeDecorator[] after, Shape core) {
+            this.before = before;
+            this.after = after;
+            this.core = core;
+        }
+
+        public static FusedShape of(Shape shape) {
+            List<ShapeDecorator> before = new ArrayList<>();
+            List<ShapeDecorator> after = new ArrayList<>();
+            Shape current = shape;
+            while (true) {
+                if (current instanceof FusedShape) {
+                    // 已经展平的链直接合并，它的 after 是从内到外的顺序，这里按从外到内追加，最后统一反转
+                    FusedShape fused = (FusedShape) current;
+                    before.addAll(Arrays.asList(fused.before));
+                    for (int i = fused.after.length - 1; i >= 0; i--) {
+                        after.add(fused.after[i]);
+                    }
+                    current = fused.core;
+                    break;
+                }
+                if (!(current instanceof ShapeDecorator)) {
+                    break;
+                }
+                ShapeDecorator decorator = (ShapeDecorator) current;
+                int hooks = HOOKS.get(decorator.getClass());
+                if ((hooks & FUSIBLE) == 0) {
+                    break;
+                }
+                if ((hooks & HAS_BEFORE) != 0) {
+                    before.add(decorator);
+                }
+                if ((hooks & HAS_AFTER) != 0) {
+                    after.add(decorator);
+                }
+                current = decorator.decoratedShape;
+            }
+            Collections.reverse(after);
+            return new FusedShape(before.toArray(new ShapeDecorator[0]), after.toArray(new ShapeDecorator[0]), current);
+        }
+
+        private static Class<?> declaringClass(Class<?> type, String method) {
+            for (Class<?> c = type; c != ShapeDecorator.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod(method);
+                    return c;
+                } catch (NoSuchMethodException e) {
+                    // 继续向父类查找
+                }
+            }
+            return ShapeDecorator.class;
+        }
+
+        public int getDepth() {
+            return Math.max(before.length, after.length);
+        }
+
+        @Override
+        public void draw() {
+            for (ShapeDecorator decorator : before) {
+                decorator.before();
+            }
+            core.draw();
+            for (ShapeDecorator decorator : after) {
+                decorator.after();
+            }
+        }
+    }
 }
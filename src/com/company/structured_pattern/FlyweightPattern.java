@@ -1,6 +1,20 @@
 package com.company.structured_pattern;
 
-import java.util.HashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * 享元模式（Flyweight Pattern）主要用于减少创建对象的数量，以减少内存占用和提高性能。
@@ -35,6 +49,10 @@ import java.util.HashMap;
  * <p>
  * 注意事项： 1、注意划分外部状态和内部状态，否则可能会引起线程安全问题。 2、这些类必须有一个工厂对象加以控制。
  * <p>
+ * 下面的 Circle 把 x、y、radius 也放在共享对象里，多个调用方同时使用同一个颜色的圆时会互相覆盖。
+ * CircleFlyweight 只保存颜色，外部状态由调用方保存在基本类型数组中，通过 drawAll 批量绘制，
+ * 既线程安全，每个圆也只占用数组中的几个 int。圆的数量达到数亿时，可以用 OffHeapCircleStore 把外部状态放到堆外。
+ * <p>
  * 我们将创建一个 Shape 接口和实现了 Shape 接口的实体类 Circle。下一步是定义工厂类 ShapeFactory。
  * <p>
  * ShapeFactory 有一个 Circle 的 HashMap，其中键名为 Circle 对象的颜色。无论何时接收到请求，都会创建一个特定颜色的圆。
@@ -49,6 +67,8 @@ public class FlyweightPattern {
             {"Red", "Green", "Blue", "White", "Black"};
 
     public static void main(String[] args) {
+        //颜色数量不受限制时，按弱引用保存圆形享元，只固定最常用的几个
+        ShapeFactory.configure(FlyweightFactory.Retention.WEAK, 4);
 
         for (int i = 0; i < 20; ++i) {
             Circle circle =
@@ -58,6 +78,39 @@ public class FlyweightPattern {
             circle.setRadius(100);
             circle.draw();
         }
+
+        //享元只保存颜色，位置和半径由调用方保存在基本类型数组中，批量绘制
+        int count = 20;
+        CircleFlyweight[] circles = new CircleFlyweight[count];
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        int[] radii = new int[count];
+        for (int i = 0; i < count; ++i) {
+            circles[i] = ShapeFactory.getCircleFlyweight(getRandomColor());
+            xs[i] = getRandomX();
+            ys[i] = getRandomY();
+            radii[i] = 100;
+        }
+        drawAll(circles, xs, ys, radii, count, CircleRenderer.CONSOLE);
+        System.out.println(ShapeFactory.getFlyweights());
+
+        //外部状态保存在堆外的定长记录中，按句柄访问，批量绘制时不创建 Circle 对象
+        OffHeapCircleStore store = new OffHeapCircleStore();
+        for (int i = 0; i < count; ++i) {
+            store.add(ShapeFactory.getCircleFlyweight(getRandomColor()), getRandomX(), getRandomY(), 100);
+        }
+        store.drawAll(CircleRenderer.CONSOLE);
+    }
+
+    /**
+     * 批量绘制：第 i 个圆的内部状态是 flyweights[i]，外部状态是 xs[i]、ys[i]、radii[i]。
+     * 数组归调用方所有，享元本身不被修改，可以在多个线程之间安全共享。
+     */
+    public static void drawAll(CircleFlyweight[] flyweights, int[] xs, int[] ys, int[] radii, int count,
+                               CircleRenderer renderer) {
+        for (int i = 0; i < count; i++) {
+            renderer.render(flyweights[i], xs[i], ys[i], radii[i]);
+        }
     }
 
     private static String getRandomColor() {
@@ -105,19 +158,524 @@ public class FlyweightPattern {
         }
     }
 
+    /**
+     * 只包含内部状态（颜色）的圆形享元，不可变，可以在线程之间共享。
+     * 外部状态（x、y、radius）在绘制时作为参数传入。
+     */
+    public static final class CircleFlyweight {
+        private final String color;
+        private final String style;
+
+        public CircleFlyweight(String color) {
+            this(color, CircleKey.DEFAULT_STYLE);
+        }
+
+        public CircleFlyweight(String color, String style) {
+            this.color = color;
+            this.style = style;
+        }
+
+        public String getColor() {
+            return color;
+        }
+
+        public String getStyle() {
+            return style;
+        }
+
+        public void draw(int x, int y, int radius) {
+            CircleRenderer.CONSOLE.render(this, x, y, radius);
+        }
+    }
+
+    /**
+     * 绘制目标，把享元和外部状态组合起来输出
+     */
+    public interface CircleRenderer {
+        CircleRenderer CONSOLE = (circle, x, y, radius) -> System.out.println("Circle: Draw() [Color : "
+                + circle.getColor() + ", x : " + x + ", y :" + y + ", radius :" + radius);
+
+        void render(CircleFlyweight circle, int x, int y, int radius);
+    }
+
+    /**
+     * 享元的内部状态键：颜色加样式。用独立的键对象代替拼接字符串，查找时不需要构造 color + style。
+     */
+    public static final class CircleKey {
+        public static final String DEFAULT_STYLE = "solid";
+
+        private final String color;
+        private final String style;
+        private final int hash;
+
+        public CircleKey(String color, String style) {
+            this.color = Objects.requireNonNull(color, "color");
+            this.style = Objects.requireNonNull(style, "style");
+            this.hash = 31 * color.hashCode() + style.hashCode();
+        }
+
+        public String getColor() {
+            return color;
+        }
+
+        public String getStyle() {
+            return style;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CircleKey)) {
+                return false;
+            }
+            CircleKey other = (CircleKey) o;
+            return hash == other.hash && color.equals(other.color) && style.equals(other.style);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return color + "/" + style;
+        }
+    }
+
+    /**
+     * 并发享元工厂
+     * <p>
+     * 基于 ConcurrentHashMap：命中时只有一次无锁读取；未命中时在 compute 中创建，
+     * 同一个键在并发下也只会创建一个实例。键可以是任意实现了 equals/hashCode 的类型，例如 CircleKey。
+     * 同时统计存活的享元数量和命中率。
+     * <p>
+     * 键空间无界（例如用户输入的颜色）时，可以选择按弱引用或软引用保存享元（Retention），
+     * 没有调用方再持有的享元会被 GC 回收，映射中失效的条目通过 ReferenceQueue 在之后的未命中时清理。
+     * 还可以指定 pinned，最多 pinned 个常用的享元额外保持强引用，避免它们在调用方暂时不持有时被回收后重建。
+     * 固定集合按 CLOCK（二次机会）近似 LRU 维护：命中时只在享元上设置访问标记，不加锁；
+     * 需要腾出位置时指针依次扫过固定的享元，清除带标记的、替换第一个没有标记的，被反复使用的享元会一直留在集合中。
+     * 只要某个享元仍被调用方持有，它就不会被回收，同一个键的两次查找一定返回同一个实例。
+     */
+    public static class FlyweightFactory<K, V> {
+
+        public enum Retention {
+            // 永不淘汰
+            STRONG,
+            // 没有外部强引用时，下一次 GC 即可回收
+            WEAK,
+            // 内存紧张时才回收
+            SOFT
+        }
+
+        private final ConcurrentMap<K, Holder<K, V>> flyweights = new ConcurrentHashMap<>();
+        private final Function<? super K, ? extends V> creator;
+        private final Retention retention;
+        private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+        // 固定的享元和它们的条目，由 pin 在锁内维护；条目的 clock 状态在锁外由命中路径更新
+        private final Object[] pinnedValues;
+        private final Holder<K, V>[] pinnedHolders;
+        private int hand;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public FlyweightFactory(Function<? super K, ? extends V> creator) {
+            this(creator, Retention.STRONG, 0);
+        }
+
+        public FlyweightFactory(Function<? super K, ? extends V> creator, Retention retention, int pinned) {
+            if (pinned < 0 || retention == Retention.STRONG && pinned > 0) {
+                throw new IllegalArgumentException("pinned must be >= 0 and only applies to WEAK/SOFT retention");
+            }
+            this.creator = creator;
+            this.retention = retention;
+            this.pinnedValues = pinned > 0 ? new Object[pinned] : null;
+            @SuppressWarnings("unchecked")
+            Holder<K, V>[] holders = pinned > 0 ? (Holder<K, V>[]) new Holder<?, ?>[pinned] : null;
+            this.pinnedHolders = holders;
+        }
+
+        public V get(K key) {
+            Holder<K, V> holder = flyweights.get(key);
+            V flyweight = holder == null ? null : holder.get();
+            if (flyweight != null) {
+                hits.increment();
+                touch(holder, flyweight);
+                return flyweight;
+            }
+            misses.increment();
+            cleanUp();
+            Object[] result = new Object[2];
+            flyweights.compute(key, (k, old) -> {
+                V existing = old == null ? null : old.get();
+                if (existing != null) {
+                    result[0] = existing;
+                    result[1] = old;
+                    return old;
+                }
+                V created = creator.apply(k);
+                Holder<K, V> fresh = holder(k, created);
+                result[0] = created;
+                result[1] = fresh;
+                return fresh;
+            });
+            @SuppressWarnings("unchecked")
+            V value = (V) result[0];
+            @SuppressWarnings("unchecked")
+            Holder<K, V> current = (Holder<K, V>) result[1];
+            touch(current, value);
+            return value;
+        }
+
+        private Holder<K, V> holder(K key, V value) {
+            AtomicInteger clock = pinnedValues == null ? null : new AtomicInteger(UNPINNED);
+            switch (retention) {
+                case WEAK:
+                    return new WeakHolder<>(key, value, queue, clock);
+                case SOFT:
+                    return new SoftHolder<>(key, value, queue, clock);
+                default:
+                    return new StrongHolder<>(key, value);
+            }
+        }
+
+        // 命中路径：已固定的只设置访问标记，没有固定的加入固定集合
+        private void touch(Holder<K, V> holder, V value) {
+            AtomicInteger clock = holder.clock();
+            if (clock == null) {
+                return;
+            }
+            int state = clock.get();
+            if (state == PINNED) {
+                clock.compareAndSet(PINNED, REFERENCED);
+            } else if (state == UNPINNED) {
+                pin(holder, value);
+            }
+        }
+
+        private synchronized void pin(Holder<K, V> holder, V value) {
+            if (holder.clock().get() != UNPINNED) {
+                return;
+            }
+            while (true) {
+                Holder<K, V> current = pinnedHolders[hand];
+                // 带访问标记的享元得到第二次机会，清除标记后跳过
+                if (current == null || !current.clock().compareAndSet(REFERENCED, PINNED)) {
+                    if (current != null) {
+                        current.clock().set(UNPINNED);
+                    }
+                    pinnedHolders[hand] = holder;
+                    pinnedValues[hand] = value;
+                    holder.clock().set(PINNED);
+                    hand = (hand + 1) % pinnedHolders.length;
+                    return;
+                }
+                hand = (hand + 1) % pinnedHolders.length;
+            }
+        }
+
+        // 移除已被 GC 回收的享元对应的条目
+        @SuppressWarnings("unchecked")
+        public void cleanUp() {
+            Reference<? extends V> ref;
+            while ((ref = queue.poll()) != null) {
+                Holder<K, V> holder = (Holder<K, V>) ref;
+                flyweights.remove(holder.key(), holder);
+            }
+        }
+
+        public int getLiveCount() {
+            cleanUp();
+            return flyweights.size();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public double getHitRatio() {
+            long h = getHits();
+            long total = h + getMisses();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        @Override
+        public String toString() {
+            return "FlyweightFactory[" + retention + ", live=" + getLiveCount() + ", hits=" + getHits()
+                    + ", misses=" + getMisses() + String.format(", hitRatio=%.3f]", getHitRatio());
+        }
+
+        private static final int UNPINNED = 0;
+        private static final int PINNED = 1;
+        private static final int REFERENCED = 2;
+
+        private interface Holder<K, V> {
+            K key();
+
+            V get();
+
+            // 固定状态（UNPINNED、PINNED、REFERENCED），没有启用 pinned 时为 null
+            AtomicInteger clock();
+        }
+
+        private static final class StrongHolder<K, V> implements Holder<K, V> {
+            private final K key;
+            private final V value;
+
+            StrongHolder(K key, V value) {
+                this.key = key;
+                this.value = value;
+            }
+
+            @Override
+            public K key() {
+                return key;
+            }
+
+            @Override
+            public V get() {
+                return value;
+            }
+
+            @Override
+            public AtomicInteger clock() {
+                return null;
+            }
+        }
+
+        private static final class WeakHolder<K, V> extends WeakReference<V> implements Holder<K, V> {
+            private final K key;
+            private final AtomicInteger clock;
+
+            WeakHolder(K key, V value, ReferenceQueue<V> queue, AtomicInteger clock) {
+                super(value, queue);
+                this.key = key;
+                this.clock = clock;
+            }
+
+            @Override
+            public K key() {
+                return key;
+            }
+
+            @Override
+            public AtomicInteger clock() {
+                return clock;
+            }
+        }
+
+        private static final class SoftHolder<K, V> extends SoftReference<V> implements Holder<K, V> {
+            private final K key;
+            private final AtomicInteger clock;
+
+            SoftHolder(K key, V value, ReferenceQueue<V> queue, AtomicInteger clock) {
+                super(value, queue);
+                this.key = key;
+                this.clock = clock;
+            }
+
+            @Override
+            public K key() {
+                return key;
+            }
+
+            @Override
+            public AtomicInteger clock() {
+                return clock;
+            }
+        }
+    }
+
+    /**
+     * 堆外圆形存储
+     * <p>
+     * 场景中有数亿个圆时，即使颜色已经共享，每个 Circle 对象仍然有对象头和四个字段，GC 需要逐个扫描。
+     * 这里把每个圆的外部状态打包成 16 字节的记录（x、y、radius、享元编号）保存在直接内存 ByteBuffer 中，
+     * 用 int 句柄访问；内部状态只在堆上保存一张很小的享元表，记录中只存它在表中的编号。
+     * <p>
+     * 1、单个 ByteBuffer 最多 2GB，所以按 CHUNK_RECORDS 条记录分块，按需分配新块，句柄的高位是块号、低位是块内下标。
+     * 2、forEach/drawAll 直接从缓冲区读取外部状态交给 CircleRenderer，不创建任何 Circle 对象。
+     * 3、直接内存不计入堆大小，需要通过 -XX:MaxDirectMemorySize 设置上限，每块 16MB，5 亿个圆约 8GB。
+     * <p>
+     * 写入（add、set）不是线程安全的，应由单个线程构建场景；构建完成并安全发布后可以多线程并发读取和绘制。
+     */
+    public static final class OffHeapCircleStore {
+        public static final int RECORD_BYTES = 16;
+        private static final int CHUNK_SHIFT = 20;
+        public static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+        private static final int X = 0;
+        private static final int Y = 4;
+        private static final int RADIUS = 8;
+        private static final int FLYWEIGHT = 12;
+
+        private ByteBuffer[] chunks = new ByteBuffer[0];
+        private CircleFlyweight[] palette = new CircleFlyweight[8];
+        // 享元没有重写 equals，按实例区分，同一个享元只占一个编号
+        private final Map<CircleFlyweight, Integer> paletteIds = new IdentityHashMap<>();
+        private int size;
+
+        /**
+         * 追加一个圆，返回它的句柄
+         */
+        public int add(CircleFlyweight flyweight, int x, int y, int radius) {
+            if (size == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Store is full");
+            }
+            int id = paletteId(flyweight);
+            int handle = size;
+            int chunk = handle >>> CHUNK_SHIFT;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk + 1);
+                chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_BYTES).order(ByteOrder.nativeOrder());
+            }
+            int offset = (handle & CHUNK_MASK) * RECORD_BYTES;
+            ByteBuffer buffer = chunks[chunk];
+            buffer.putInt(offset + X, x);
+            buffer.putInt(offset + Y, y);
+            buffer.putInt(offset + RADIUS, radius);
+            buffer.putInt(offset + FLYWEIGHT, id);
+            size = handle + 1;
+            return handle;
+        }
+
+        private int paletteId(CircleFlyweight flyweight) {
+            Integer id = paletteIds.get(Objects.requireNonNull(flyweight, "flyweight"));
+            if (id != null) {
+                return id;
+            }
+            int next = paletteIds.size();
+            if (next == palette.length) {
+                palette = Arrays.copyOf(palette, next * 2);
+            }
+            palette[next] = flyweight;
+            paletteIds.put(flyweight, next);
+            return next;
+        }
+
+        /**
+         * 修改一个圆的外部状态，享元不变
+         */
+        public void set(int handle, int x, int y, int radius) {
+            ByteBuffer buffer = chunk(handle);
+            int offset = (handle & CHUNK_MASK) * RECORD_BYTES;
+            buffer.putInt(offset + X, x);
+            buffer.putInt(offset + Y, y);
+            buffer.putInt(offset + RADIUS, radius);
+        }
+
+        public int getX(int handle) {
+            return chunk(handle).getInt((handle & CHUNK_MASK) * RECORD_BYTES + X);
+        }
+
+        public int getY(int handle) {
+            return chunk(handle).getInt((handle & CHUNK_MASK) * RECORD_BYTES + Y);
+        }
+
+        public int getRadius(int handle) {
+            return chunk(handle).getInt((handle & CHUNK_MASK) * RECORD_BYTES + RADIUS);
+        }
+
+        public CircleFlyweight getFlyweight(int handle) {
+            return palette[chunk(handle).getInt((handle & CHUNK_MASK) * RECORD_BYTES + FLYWEIGHT)];
+        }
+
+        private ByteBuffer chunk(int handle) {
+            if (handle < 0 || handle >= size) {
+                throw new IndexOutOfBoundsException("Invalid handle: " + handle);
+            }
+            return chunks[handle >>> CHUNK_SHIFT];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getPaletteSize() {
+            return paletteIds.size();
+        }
+
+        /**
+         * 占用的直接内存字节数（按已分配的块计算）
+         */
+        public long getOffHeapBytes() {
+            return (long) chunks.length * CHUNK_RECORDS * RECORD_BYTES;
+        }
+
+        public void drawAll(CircleRenderer renderer) {
+            drawAll(renderer, 0, size);
+        }
+
+        /**
+         * 按句柄顺序绘制 [from, to) 范围内的圆，不同线程可以并发绘制互不重叠的范围
+         */
+        public void drawAll(CircleRenderer renderer, int from, int to) {
+            if (from < 0 || to > size || from > to) {
+                throw new IndexOutOfBoundsException("Invalid range: [" + from + ", " + to + ")");
+            }
+            CircleFlyweight[] table = palette;
+            int handle = from;
+            while (handle < to) {
+                ByteBuffer buffer = chunks[handle >>> CHUNK_SHIFT];
+                // 一次处理到当前块的末尾，循环内只剩下绝对位置读取
+                int end = (int) Math.min(to, (long) (handle | CHUNK_MASK) + 1);
+                for (int offset = (handle & CHUNK_MASK) * RECORD_BYTES; handle < end; handle++, offset += RECORD_BYTES) {
+                    renderer.render(table[buffer.getInt(offset + FLYWEIGHT)],
+                            buffer.getInt(offset + X), buffer.getInt(offset + Y), buffer.getInt(offset + RADIUS));
+                }
+            }
+        }
+    }
+
+    /**
+     * 形状工厂
+     * <p>
+     * 圆形享元默认按 STRONG 保存。颜色来自用户输入等无界来源时，可以在启动时调用 configure 改为 WEAK 或 SOFT，
+     * 并用 pinned 固定常用的享元。configure 会换用一个新的享元工厂，之前取得的享元不再与之后的查找共享实例，
+     * 所以应该在第一次取得享元之前调用。
+     */
     public static class ShapeFactory {
-        private static final HashMap<String, Shape> circleMap = new HashMap<>();
+        private static final ConcurrentMap<String, Shape> circleMap = new ConcurrentHashMap<>();
+        private static volatile FlyweightFactory<CircleKey, CircleFlyweight> flyweights =
+                new FlyweightFactory<>(ShapeFactory::newFlyweight);
+
+        public static void configure(FlyweightFactory.Retention retention, int pinned) {
+            flyweights = new FlyweightFactory<>(ShapeFactory::newFlyweight, retention, pinned);
+        }
+
+        private static CircleFlyweight newFlyweight(CircleKey key) {
+            return new CircleFlyweight(key.color, key.style);
+        }
 
         public static Shape getCircle(String color) {
             Circle circle = (Circle) circleMap.get(color);
 
             if (circle == null) {
-                circle = new Circle(color);
-                circleMap.put(color, circle);
-                System.out.println("Creating circle of color : " + color);
+                circle = (Circle) circleMap.computeIfAbsent(color, c -> {
+                    System.out.println("Creating circle of color : " + c);
+                    return new Circle(c);
+                });
             }
             return circle;
         }
+
+        public static CircleFlyweight getCircleFlyweight(String color) {
+            return getCircleFlyweight(color, CircleKey.DEFAULT_STYLE);
+        }
+
+        public static CircleFlyweight getCircleFlyweight(String color, String style) {
+            return flyweights.get(new CircleKey(color, style));
+        }
+
+        public static FlyweightFactory<CircleKey, CircleFlyweight> getFlyweights() {
+            return flyweights;
+        }
     }
 }
-
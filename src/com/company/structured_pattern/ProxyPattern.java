@@ -1,5 +1,30 @@
 package com.company.structured_pattern;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * 代理模式
  * 在代理模式（Proxy Pattern）中，一个类代表另一个类的功能。这种类型的设计模式属于结构型模式。
@@ -50,31 +75,183 @@ package com.company.structured_pattern;
  * 2、和装饰器模式的区别：装饰器模式为了增强功能，而代理模式是为了加以控制。
  * <p>
  * 我们将创建一个 Image 接口和实现了 Image 接口的实体类。ProxyImage 是一个代理类，减少 RealImage 对象加载的内存占用。
+ * ProxyImage 保证并发的首次访问只加载一次，并提供基于 CompletableFuture 的异步显示和预取。
+ * 加载后的图像保存在按字节数限制大小的共享缓存 ImageCache 中，多个代理共享同一份图像。
+ * ImagePrefetcher 根据访问顺序预测接下来要显示的图像并在后台预先加载。
  * <p>
  * ProxyPatternDemo 类使用 ProxyImage 来获取要加载的 Image 对象，并按照需求进行显示。
  */
 public class ProxyPattern {
-    public static void main(String[] args) {
-        Image image = new ProxyImage("test_10mb.jpg");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String smallImage = demoAsset("test_10mb.jpg");
+        String largeImage = demoAsset("test_20mb.jpg");
+        Image image = new ProxyImage(smallImage);
 
         // 图像将从磁盘加载
         image.display();
         System.out.println("");
         // 图像不需要从磁盘加载
         image.display();
+        System.out.println("");
+
+        // 多个线程同时第一次显示同一张图片，只加载一次，加载在有界的 I/O 线程池上执行
+        ExecutorService loader = ProxyImage.newLoaderExecutor(2, 16);
+        ProxyImage shared = new ProxyImage(largeImage, loader);
+        CompletableFuture<?>[] displays = new CompletableFuture<?>[4];
+        for (int i = 0; i < displays.length; i++) {
+            displays[i] = shared.displayAsync();
+        }
+        CompletableFuture.allOf(displays).join();
+        loader.shutdown();
+        System.out.println("");
+
+        // 两个代理指向同一个文件，共享缓存中的同一份图像
+        new ProxyImage(smallImage).display();
+        System.out.println(ImageCache.SHARED);
+        System.out.println("");
+
+        // 预算只够放下一张图像：b 加载后 a 被淘汰，再次显示 a 时透明地重新加载
+        Path a = Files.createTempFile("proxy-a", ".jpg");
+        Path b = Files.createTempFile("proxy-b", ".jpg");
+        try {
+            Files.write(a, new byte[1024]);
+            Files.write(b, new byte[1024]);
+            ImageCache small = new ImageCache(1536);
+            new ProxyImage(a.toString(), Runnable::run, small).display();
+            new ProxyImage(b.toString(), Runnable::run, small).display();
+            new ProxyImage(a.toString(), Runnable::run, small).display();
+            System.out.println(small);
+
+            // 把 a 看作每行 64 字节的原始像素，只读取视口覆盖的 4 行
+            new RealImage(a.toString()).display(64, 8, 2, 16, 4);
+            System.out.println("");
+
+            // 按 a、b 的顺序浏览两遍，两遍之间清空缓存。第二遍访问 a 时预取器已经学到 a 之后是 b，提前在后台加载 b
+            ExecutorService prefetchLoader = ProxyImage.newLoaderExecutor(1, 4);
+            ImageCache galleryCache = new ImageCache(4096);
+            ImagePrefetcher prefetcher = new ImagePrefetcher(galleryCache, prefetchLoader, 1, 1, 4096);
+            Image[] gallery = {prefetcher.image(a.toString()), prefetcher.image(b.toString())};
+            for (int round = 0; round < 2; round++) {
+                galleryCache.setMaxBytes(0);
+                galleryCache.setMaxBytes(4096);
+                for (Image galleryImage : gallery) {
+                    galleryImage.display();
+                    // 浏览时在每张图像上停留一会儿，预取在这段时间里完成
+                    Thread.sleep(50);
+                }
+            }
+            prefetchLoader.shutdown();
+            prefetchLoader.awaitTermination(1, TimeUnit.SECONDS);
+            System.out.println(prefetcher);
+        } finally {
+            Files.delete(a);
+            Files.delete(b);
+        }
+    }
+
+    // 示例图片不在工作目录下时，用同名的临时占位文件代替，退出时删除
+    private static String demoAsset(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        if (Files.isRegularFile(path)) {
+            return fileName;
+        }
+        Path placeholder = Files.createTempFile(fileName.substring(0, fileName.lastIndexOf('.')) + "-", ".jpg");
+        Files.write(placeholder, new byte[1024]);
+        placeholder.toFile().deleteOnExit();
+        return placeholder.toString();
     }
 
     public interface Image {
         void display();
     }
 
+    /**
+     * 真实图像
+     * <p>
+     * 1、按 Loader 加载文件内容：MEMORY_MAPPED（默认）通过 FileChannel.map 映射文件，不复制到堆上，
+     * 只有真正被读取的页才会从磁盘读入；HEAP_COPY 把整个文件读入堆上的 byte 数组。
+     * 2、getData 返回只读的缓冲区视图，region 返回文件中一段区域的只读切片，都不复制数据。
+     * 3、readTile 把文件看作按行存储、每行 rowBytes 字节的原始像素，只读取视口覆盖的那几行中的一段，
+     * 显示视口时只会访问这些行所在的页。
+     * <p>
+     * 单个文件不能超过 2GB（ByteBuffer 的容量上限）。映射在 RealImage 不可达并被 GC 回收后才会解除。
+     * 文件不存在或读取失败时构造方法抛出 UncheckedIOException（例如包装 NoSuchFileException），ImageCache 不会缓存失败的加载。
+     */
     public static class RealImage implements Image {
 
+        public enum Loader {
+            HEAP_COPY {
+                @Override
+                ByteBuffer load(Path path) throws IOException {
+                    return ByteBuffer.wrap(Files.readAllBytes(path));
+                }
+            },
+            MEMORY_MAPPED {
+                @Override
+                ByteBuffer load(Path path) throws IOException {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        long size = channel.size();
+                        if (size > Integer.MAX_VALUE) {
+                            throw new IllegalArgumentException("Image too large to map: " + path);
+                        }
+                        // 通道关闭后映射仍然有效
+                        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                }
+            };
+
+            abstract ByteBuffer load(Path path) throws IOException;
+        }
+
         private String fileName;
+        private final ByteBuffer data;
 
         public RealImage(String fileName) {
+            this(fileName, Loader.MEMORY_MAPPED);
+        }
+
+        public RealImage(String fileName, Loader loader) {
             this.fileName = fileName;
-            loadFromDisk(fileName);
+            this.data = loadFromDisk(fileName, loader).asReadOnlyBuffer();
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getSizeBytes() {
+            return data.capacity();
+        }
+
+        /**
+         * 整个图像的只读视图，每次返回独立的位置和界限，可以在多个线程中各自使用
+         */
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        /**
+         * [offset, offset + length) 区域的只读切片，不复制数据
+         */
+        public ByteBuffer region(int offset, int length) {
+            if (offset < 0 || length < 0 || offset > data.capacity() - length) {
+                throw new IndexOutOfBoundsException("Invalid region: offset=" + offset + ", length=" + length);
+            }
+            return data.duplicate().position(offset).limit(offset + length).slice();
+        }
+
+        /**
+         * 读取左上角为 (x, y)、宽 width 字节、高 height 行的图块到 dst，dst 按 width 紧密排列
+         */
+        public void readTile(int rowBytes, int x, int y, int width, int height, byte[] dst) {
+            if (rowBytes <= 0 || x < 0 || y < 0 || width < 0 || height < 0 || x + width > rowBytes
+                    || (long) (y + height) * rowBytes > data.capacity() || dst.length < width * height) {
+                throw new IndexOutOfBoundsException("Invalid tile: rowBytes=" + rowBytes + ", x=" + x + ", y=" + y
+                        + ", width=" + width + ", height=" + height);
+            }
+            for (int row = 0; row < height; row++) {
+                data.get((y + row) * rowBytes + x, dst, row * width, width);
+            }
         }
 
         @Override
@@ -82,26 +259,614 @@ public class ProxyPattern {
             System.out.println("Displaying " + fileName);
         }
 
-        private void loadFromDisk(String fileName) {
+        /**
+         * 只显示视口范围内的图块
+         */
+        public void display(int rowBytes, int x, int y, int width, int height) {
+            byte[] tile = new byte[width * height];
+            readTile(rowBytes, x, y, width, height, tile);
+            System.out.println("Displaying " + fileName + " [" + x + ", " + y + ", " + width + "x" + height + "]");
+        }
+
+        private ByteBuffer loadFromDisk(String fileName, Loader loader) {
             System.out.println("Loading " + fileName);
+            try {
+                return loader.load(Paths.get(fileName));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
+    /**
+     * 虚拟代理
+     * <p>
+     * 1、代理本身不持有 RealImage，每次访问都经过 ImageCache：同一个文件名的多个代理共享同一份图像，
+     * 图像被淘汰后下一次 display 会透明地重新加载。
+     * 2、单飞加载由 ImageCache 保证：并发的首次访问都等待同一个加载中的 CompletableFuture，同一个文件只加载一次。
+     * 3、display 阻塞等待加载完成；displayAsync、prefetch 立即返回 CompletableFuture，不阻塞调用方线程。
+     * 4、加载在构造时传入的 Executor 上执行，可以用 newLoaderExecutor 创建有界的 I/O 线程池；
+     * 不传时在发起加载的调用方线程上执行，此时 displayAsync、prefetch 返回时加载已经完成。
+     * 线程池饱和拒绝任务时不会退回到调用方线程上加载：返回的 future 以 RejectedExecutionException 失败，
+     * display 直接抛出该异常，之后的访问会重新尝试加载。
+     * Java 17 还没有虚拟线程，运行在 Java 21 以上时可以直接传入 Executors.newVirtualThreadPerTaskExecutor()。
+     */
     public static class ProxyImage implements Image {
 
-        private RealImage realImage;
-        private String fileName;
+        private final String fileName;
+        private final Executor loader;
+        private final ImageCache cache;
 
         public ProxyImage(String fileName) {
+            this(fileName, Runnable::run);
+        }
+
+        public ProxyImage(String fileName, Executor loader) {
+            this(fileName, loader, ImageCache.SHARED);
+        }
+
+        public ProxyImage(String fileName, Executor loader, ImageCache cache) {
             this.fileName = fileName;
+            this.loader = loader;
+            this.cache = cache;
+        }
+
+        /**
+         * 有界的加载线程池：最多 threads 个守护线程，最多排队 queueCapacity 个加载，队列满时拒绝新的任务（抛出
+         * RejectedExecutionException），而不是在提交任务的线程上执行，保证 displayAsync、prefetch 不会阻塞调用方
+         */
+        public static ExecutorService newLoaderExecutor(int threads, int queueCapacity) {
+            AtomicInteger index = new AtomicInteger();
+            return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "image-loader-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
         }
 
         @Override
         public void display() {
-            if (realImage == null) {
-                realImage = new RealImage(fileName);
+            try {
+                load().join().display();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        public CompletableFuture<Void> displayAsync() {
+            return load().thenAccept(RealImage::display);
+        }
+
+        /**
+         * 提前加载到缓存中，不显示
+         */
+        public CompletableFuture<? extends Image> prefetch() {
+            return load();
+        }
+
+        public boolean isLoaded() {
+            return cache.isLoaded(fileName);
+        }
+
+        private CompletableFuture<RealImage> load() {
+            return cache.get(fileName, loader);
+        }
+    }
+
+    /**
+     * 进程内共享的图像缓存
+     * <p>
+     * 1、按文件名缓存 RealImage（默认内存映射加载），按图像字节数计算占用，总占用超过 maxBytes 时按 LRU 顺序淘汰已加载完成的图像。
+     * 单张超过预算的图像不进入缓存，也不会因此淘汰其他图像，只交给等待本次加载的调用方使用。
+     * 2、缓存的是加载中的 CompletableFuture，并发访问同一个未缓存的文件时只加载一次；加载失败时移除条目，之后的访问会重新加载。
+     * 3、统计命中、未命中、淘汰次数和累计加载耗时。
+     * <p>
+     * 访问顺序由 LinkedHashMap 维护，每次访问都要加锁，但锁内只有一次哈希查找和链表调整，加载本身在锁外执行。
+     */
+    public static class ImageCache {
+        public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+        public static final ImageCache SHARED = new ImageCache(DEFAULT_MAX_BYTES);
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final RealImage.Loader imageLoader;
+        private long maxBytes;
+        private long weightedBytes;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder loadNanos = new LongAdder();
+
+        public ImageCache(long maxBytes) {
+            this(maxBytes, RealImage.Loader.MEMORY_MAPPED);
+        }
+
+        public ImageCache(long maxBytes, RealImage.Loader imageLoader) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes must be >= 0");
+            }
+            this.maxBytes = maxBytes;
+            this.imageLoader = imageLoader;
+        }
+
+        public CompletableFuture<RealImage> get(String fileName, Executor loader) {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(fileName);
+                if (entry != null) {
+                    hits.increment();
+                    return entry.future;
+                }
+                misses.increment();
+                entry = new Entry();
+                entries.put(fileName, entry);
+            }
+            Entry loading = entry;
+            try {
+                loader.execute(() -> load(fileName, loading));
+            } catch (RejectedExecutionException e) {
+                fail(fileName, loading, e);
+            }
+            return loading.future;
+        }
+
+        private void load(String fileName, Entry entry) {
+            long start = System.nanoTime();
+            RealImage image;
+            try {
+                image = new RealImage(fileName, imageLoader);
+            } catch (Throwable t) {
+                fail(fileName, entry, t);
+                return;
+            }
+            loadNanos.add(System.nanoTime() - start);
+            synchronized (this) {
+                // 加载期间可能已经被 invalidate，此时不再计入占用
+                if (entries.get(fileName) == entry) {
+                    if (image.getSizeBytes() > maxBytes) {
+                        // 单张超过预算：不缓存，也不为它淘汰其他图像
+                        entries.remove(fileName);
+                    } else {
+                        entry.weight = image.getSizeBytes();
+                        entry.loaded = true;
+                        weightedBytes += entry.weight;
+                        evict();
+                    }
+                }
+            }
+            entry.future.complete(image);
+        }
+
+        private void fail(String fileName, Entry entry, Throwable cause) {
+            synchronized (this) {
+                entries.remove(fileName, entry);
+            }
+            entry.future.completeExceptionally(cause);
+        }
+
+        // 从最久未访问的一端开始淘汰，跳过仍在加载中的条目
+        private void evict() {
+            Iterator<Entry> it = entries.values().iterator();
+            while (weightedBytes > maxBytes && it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.loaded) {
+                    it.remove();
+                    weightedBytes -= entry.weight;
+                    evictions.increment();
+                }
+            }
+        }
+
+        public synchronized boolean isLoaded(String fileName) {
+            Entry entry = entries.get(fileName);
+            return entry != null && entry.loaded;
+        }
+
+        public synchronized void invalidate(String fileName) {
+            Entry entry = entries.remove(fileName);
+            if (entry != null && entry.loaded) {
+                weightedBytes -= entry.weight;
+            }
+        }
+
+        public synchronized void setMaxBytes(long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes must be >= 0");
+            }
+            this.maxBytes = maxBytes;
+            evict();
+        }
+
+        public synchronized long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public synchronized long getWeightedBytes() {
+            return weightedBytes;
+        }
+
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public long getLoadNanos() {
+            return loadNanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "ImageCache[size=" + size() + ", bytes=" + getWeightedBytes() + "/" + getMaxBytes()
+                    + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                    + ", loadMillis=" + getLoadNanos() / 1_000_000 + "]";
+        }
+
+        private static final class Entry {
+            private final CompletableFuture<RealImage> future = new CompletableFuture<>();
+            private long weight;
+            private boolean loaded;
+        }
+    }
+
+    /**
+     * 预取代理
+     * <p>
+     * 1、通过 image 得到的代理在每次访问前先通知预取器。预取器记录相邻两次访问构成的转移次数（一阶马尔可夫模型），
+     * 从当前图像出发，每一步都取出现次数最多、且还没选过的后继，得到接下来最可能访问的 depth 张图像，在后台预先加载到 ImageCache。
+     * 模型大小有上限：最多记录 MAX_NODES 个起点，超出时丢弃最久没有用到的起点；每个起点最多保留 MAX_SUCCESSORS 个后继，
+     * 满了以后新的后继替换次数最少的那个，并在它的次数上加一（Space-Saving），新出现的转移仍然有机会进入前几名。
+     * 2、同时进行的预取不超过 maxInFlight 个；已经预取但还没被访问的字节数与正在加载的预取的字节数之和不超过 maxUnusedBytes。
+     * 预取开始加载前先取得文件大小，超出剩余预算时放弃这次预取。
+     * loader 应该在饱和时拒绝任务（例如 newLoaderExecutor），被拒绝的预取直接放弃；
+     * 任务被交回提交线程执行时（CallerRunsPolicy、直接执行的 Executor）同样放弃，预取永远不会占用用户的显示线程。
+     * 3、每次访问后不在新预测结果中的预取视为过期：还没开始的直接取消，loader 是 ThreadPoolExecutor 时同时从队列中移除；
+     * 已经加载完成但没被访问的计入浪费的字节数。已经开始的加载不会被中断，加载完成后同样计入浪费。
+     * 访问的图像正好有一个还在排队的预取时，调用方自己加载，这个预取被取消，不会在之后被算作浪费。
+     * 4、统计预取命中率（访问中由预取提前加载的比例）、准确率（完成的预取中被用到的比例）和浪费的字节数。
+     * <p>
+     * 模型和预取状态都由预取器的锁保护，锁内只做簿记；提交、移除任务和加载都在锁外进行。
+     */
+    public static class ImagePrefetcher {
+        private static final int MAX_NODES = 4096;
+        private static final int MAX_SUCCESSORS = 8;
+
+        private final ImageCache cache;
+        private final Executor loader;
+        private final int depth;
+        private final int maxInFlight;
+        private final long maxUnusedBytes;
+
+        // 按访问顺序排列的起点，超过 MAX_NODES 时丢弃最久没有用到的
+        private final Map<String, Map<String, Integer>> transitions = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Integer>> eldest) {
+                return size() > MAX_NODES;
+            }
+        };
+        private final Map<String, Prefetch> inFlight = new HashMap<>();
+        private final Map<String, Long> unused = new HashMap<>();
+        private String lastAccess;
+        private long unusedBytes;
+        private long inFlightBytes;
+
+        private long accesses;
+        private long hits;
+        private long issued;
+        private long completed;
+        private long cancelled;
+        private long wastedBytes;
+
+        public ImagePrefetcher(ImageCache cache, Executor loader, int depth, int maxInFlight, long maxUnusedBytes) {
+            if (depth < 0 || maxInFlight < 0 || maxUnusedBytes < 0) {
+                throw new IllegalArgumentException("depth, maxInFlight and maxUnusedBytes must be >= 0");
+            }
+            this.cache = cache;
+            this.loader = loader;
+            this.depth = depth;
+            this.maxInFlight = maxInFlight;
+            this.maxUnusedBytes = maxUnusedBytes;
+        }
+
+        /**
+         * 返回一个经过预取器的图像代理，显示时在调用方线程上加载
+         */
+        public Image image(String fileName) {
+            ProxyImage proxy = new ProxyImage(fileName, Runnable::run, cache);
+            return () -> {
+                onAccess(fileName);
+                proxy.display();
+            };
+        }
+
+        /**
+         * 记录一次访问，并根据新的预测发起或取消预取。簿记在锁内完成，提交和取消任务在锁外进行
+         */
+        public void onAccess(String fileName) {
+            List<Prefetch> submit = new ArrayList<>();
+            List<Prefetch> dropped = new ArrayList<>();
+            synchronized (this) {
+                accesses++;
+                Long bytes = unused.remove(fileName);
+                if (bytes != null) {
+                    unusedBytes -= bytes;
+                    // 预取的图像在被访问之前已经被缓存淘汰，相当于白加载了一次
+                    if (cache.isLoaded(fileName)) {
+                        hits++;
+                    } else {
+                        wastedBytes += bytes;
+                    }
+                } else {
+                    Prefetch pending = inFlight.get(fileName);
+                    if (pending != null && pending.started) {
+                        // 预取正在加载，本次访问会等待同一次加载
+                        pending.consumed = true;
+                        hits++;
+                    } else if (pending != null) {
+                        // 预取还在排队，调用方会自己加载，取消它
+                        cancel(pending, dropped);
+                    }
+                }
+
+                if (lastAccess != null && !lastAccess.equals(fileName)) {
+                    recordTransition(lastAccess, fileName);
+                }
+                lastAccess = fileName;
+
+                List<String> predicted = predict(fileName);
+                discardStale(fileName, predicted, dropped);
+                for (String next : predicted) {
+                    if (inFlight.size() >= maxInFlight || unusedBytes + inFlightBytes >= maxUnusedBytes) {
+                        break;
+                    }
+                    if (!inFlight.containsKey(next) && !unused.containsKey(next) && !cache.isLoaded(next)) {
+                        Prefetch prefetch = new Prefetch(next);
+                        inFlight.put(next, prefetch);
+                        issued++;
+                        submit.add(prefetch);
+                    }
+                }
+            }
+            for (Prefetch prefetch : dropped) {
+                dequeue(prefetch);
+            }
+            for (Prefetch prefetch : submit) {
+                submit(prefetch);
+            }
+        }
+
+        private void recordTransition(String from, String to) {
+            Map<String, Integer> successors = transitions.computeIfAbsent(from, k -> new HashMap<>());
+            if (successors.merge(to, 1, Integer::sum) == 1 && successors.size() > MAX_SUCCESSORS) {
+                successors.remove(to);
+                String weakest = null;
+                int weakestCount = Integer.MAX_VALUE;
+                for (Map.Entry<String, Integer> e : successors.entrySet()) {
+                    if (e.getValue() < weakestCount) {
+                        weakest = e.getKey();
+                        weakestCount = e.getValue();
+                    }
+                }
+                successors.remove(weakest);
+                successors.put(to, weakestCount + 1);
+            }
+        }
+
+        private List<String> predict(String fileName) {
+            List<String> predicted = new ArrayList<>(depth);
+            String current = fileName;
+            while (predicted.size() < depth) {
+                Map<String, Integer> successors = transitions.get(current);
+                String best = null;
+                int bestCount = 0;
+                if (successors != null) {
+                    for (Map.Entry<String, Integer> e : successors.entrySet()) {
+                        String candidate = e.getKey();
+                        if (e.getValue() > bestCount && !candidate.equals(fileName) && !predicted.contains(candidate)) {
+                            best = candidate;
+                            bestCount = e.getValue();
+                        }
+                    }
+                }
+                if (best == null) {
+                    break;
+                }
+                predicted.add(best);
+                current = best;
+            }
+            return predicted;
+        }
+
+        private void discardStale(String fileName, List<String> predicted, List<Prefetch> dropped) {
+            for (Prefetch prefetch : new ArrayList<>(inFlight.values())) {
+                if (!prefetch.fileName.equals(fileName) && !predicted.contains(prefetch.fileName) && !prefetch.stale) {
+                    if (prefetch.started) {
+                        prefetch.stale = true;
+                    } else {
+                        cancel(prefetch, dropped);
+                    }
+                }
+            }
+            Iterator<Map.Entry<String, Long>> loaded = unused.entrySet().iterator();
+            while (loaded.hasNext()) {
+                Map.Entry<String, Long> e = loaded.next();
+                if (!predicted.contains(e.getKey())) {
+                    loaded.remove();
+                    unusedBytes -= e.getValue();
+                    wastedBytes += e.getValue();
+                }
+            }
+        }
+
+        // 取消还没开始的预取，任务稍后在锁外从线程池队列中移除
+        private void cancel(Prefetch prefetch, List<Prefetch> dropped) {
+            prefetch.stale = true;
+            inFlight.remove(prefetch.fileName, prefetch);
+            cancelled++;
+            dropped.add(prefetch);
+        }
+
+        private void dequeue(Prefetch prefetch) {
+            if (loader instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor) loader).remove(prefetch.task);
+            }
+        }
+
+        private void submit(Prefetch prefetch) {
+            prefetch.submitter = Thread.currentThread();
+            try {
+                loader.execute(prefetch.task);
+            } catch (RejectedExecutionException e) {
+                // 线程池饱和时放弃这次预取
+                synchronized (this) {
+                    if (inFlight.remove(prefetch.fileName, prefetch)) {
+                        cancelled++;
+                    }
+                }
+            } finally {
+                prefetch.submitter = null;
+            }
+        }
+
+        private void run(Prefetch prefetch) {
+            synchronized (this) {
+                // 排队期间已经过期，直接放弃
+                if (prefetch.stale) {
+                    return;
+                }
+                // 线程池把任务交回提交线程执行（例如 CallerRunsPolicy 或直接执行的 Executor），
+                // 不能在用户的显示线程上加载推测的图像
+                if (prefetch.submitter == Thread.currentThread()) {
+                    prefetch.stale = true;
+                    inFlight.remove(prefetch.fileName, prefetch);
+                    cancelled++;
+                    return;
+                }
+            }
+            long expectedBytes;
+            try {
+                expectedBytes = Files.size(Paths.get(prefetch.fileName));
+            } catch (IOException | RuntimeException e) {
+                // 文件不存在或不可读，交给真正访问时报错
+                synchronized (this) {
+                    inFlight.remove(prefetch.fileName, prefetch);
+                }
+                return;
+            }
+            synchronized (this) {
+                if (prefetch.stale) {
+                    return;
+                }
+                // 加上这次预取会超出预算时放弃
+                if (unusedBytes + inFlightBytes + expectedBytes > maxUnusedBytes) {
+                    prefetch.stale = true;
+                    inFlight.remove(prefetch.fileName, prefetch);
+                    cancelled++;
+                    return;
+                }
+                prefetch.started = true;
+                prefetch.reservedBytes = expectedBytes;
+                inFlightBytes += expectedBytes;
+            }
+            RealImage image;
+            try {
+                image = cache.get(prefetch.fileName, Runnable::run).join();
+            } catch (CompletionException e) {
+                synchronized (this) {
+                    inFlight.remove(prefetch.fileName, prefetch);
+                    inFlightBytes -= prefetch.reservedBytes;
+                }
+                return;
+            }
+            synchronized (this) {
+                inFlight.remove(prefetch.fileName, prefetch);
+                inFlightBytes -= prefetch.reservedBytes;
+                completed++;
+                long bytes = image.getSizeBytes();
+                if (prefetch.consumed) {
+                    return;
+                }
+                if (prefetch.stale) {
+                    wastedBytes += bytes;
+                } else {
+                    unused.put(prefetch.fileName, bytes);
+                    unusedBytes += bytes;
+                }
+            }
+        }
+
+        public synchronized long getAccesses() {
+            return accesses;
+        }
+
+        public synchronized long getHits() {
+            return hits;
+        }
+
+        public synchronized long getIssued() {
+            return issued;
+        }
+
+        public synchronized long getCompleted() {
+            return completed;
+        }
+
+        public synchronized long getCancelled() {
+            return cancelled;
+        }
+
+        public synchronized long getWastedBytes() {
+            return wastedBytes;
+        }
+
+        public synchronized double getHitRate() {
+            return accesses == 0 ? 0 : (double) hits / accesses;
+        }
+
+        public synchronized double getAccuracy() {
+            return completed == 0 ? 0 : Math.min(1.0, (double) hits / completed);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("ImagePrefetcher[accesses=%d, hits=%d, hitRate=%.3f, accuracy=%.3f, issued=%d, "
+                            + "completed=%d, cancelled=%d, wastedBytes=%d]",
+                    accesses, hits, getHitRate(), getAccuracy(), issued, completed, cancelled, wastedBytes);
+        }
+
+        private final class Prefetch {
+            private final String fileName;
+            private final Runnable task = () -> run(this);
+            // 正在提交这个任务的线程，只在 execute 调用期间不为 null
+            private volatile Thread submitter;
+            // 开始加载时按文件大小占用的预算，加载结束后释放
+            private long reservedBytes;
+            private boolean started;
+            private boolean stale;
+            private boolean consumed;
+
+            Prefetch(String fileName) {
+                this.fileName = fileName;
             }
-            realImage.display();
         }
     }
 }